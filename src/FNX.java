@@ -18,9 +18,7 @@
  */
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.InputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringReader;
@@ -29,6 +27,22 @@ import java.io.UnsupportedEncodingException;
 
 import java.lang.reflect.Method;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+
 import java.net.URLEncoder;
 
 import java.security.MessageDigest;
@@ -42,6 +56,10 @@ import java.util.Map;
 import java.util.ResourceBundle;
 import java.util.TimeZone;
 
+import java.util.concurrent.ThreadLocalRandom;
+
+import java.util.prefs.Preferences;
+
 import javax.swing.JEditorPane;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
@@ -61,22 +79,27 @@ import javax.xml.transform.dom.DOMSource;
 
 import javax.xml.transform.stream.StreamResult;
 
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathFactory;
-
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
 
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 public abstract class FNX
 {
+	final private static int WRITE_BUFFER = 64 * 1024;
+
+	// Puffer für sha512(File), je Thread nur einmal angelegt.
+	final private static int  DIGEST_BUFFER = 256 * 1024;
+	final private static ThreadLocal<ByteBuffer> digestBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(DIGEST_BUFFER));
+
+	final private static char[] HEX = "0123456789abcdef".toCharArray();
+
 	private static DateFormat             dateFormat;
-	private static DocumentBuilderFactory dbFactory;
-	private static DocumentBuilder        dBuilder;
+
+	final private static DocumentBuilderFactory       dbFactory = DocumentBuilderFactory.newInstance();
+	final private static ThreadLocal<DocumentBuilder> dBuilder  = new ThreadLocal<DocumentBuilder>();
+	final private static ThreadLocal<Transformer[]>   tFormer   = ThreadLocal.withInitial(() -> new Transformer[2]);
 
 	public static String getDateString()
 	{
@@ -150,29 +173,73 @@ public abstract class FNX
 		return qs.toString();
 	}
 
-	private static void setupDOMParser() throws SAXException, ParserConfigurationException, IOException
+	// DocumentBuilder und Transformer sind nicht thread-safe, werden aber
+	// auch von Hintergrund-Threads (HTGT_Background) genutzt. Deshalb gibt
+	// es je Thread eine eigene, wiederverwendbare Instanz.
+	private static DocumentBuilder getDocumentBuilder() throws ParserConfigurationException
 	{
-		if(dbFactory == null)
+		DocumentBuilder builder = dBuilder.get();
+
+		if(builder == null)
 		{
-			dbFactory = DocumentBuilderFactory.newInstance();
+			synchronized(dbFactory)
+			{
+				builder = dbFactory.newDocumentBuilder();
+			}
+
+			dBuilder.set(builder);
+		}
+		else
+		{
+			builder.reset();
 		}
 
-		if(dBuilder == null)
+		return builder;
+	}
+
+	private static Transformer getTransformer(boolean full) throws TransformerException
+	{
+		Transformer[] transformers = tFormer.get();
+		int i = full ? 1 : 0;
+
+		if(transformers[i] == null)
 		{
-			dBuilder = dbFactory.newDocumentBuilder();
+			Transformer t = TransformerFactory.newInstance().newTransformer();
+
+			if(full)
+			{
+				t.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "no");
+			}
+			else
+			{
+				t.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+			}
+
+			t.setOutputProperty(OutputKeys.METHOD, "xml");
+			t.setOutputProperty(OutputKeys.INDENT, "yes");
+			t.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+			// t.setOutputProperty(OutputKeys.STANDALONE, "yes");
+			t.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
+
+			transformers[i] = t;
 		}
+
+		return transformers[i];
+	}
+
+	public static Document getDOMDocument() throws ParserConfigurationException
+	{
+		return getDocumentBuilder().newDocument();
 	}
 
 	public static Document getDOMDocument(String xml) throws SAXException, ParserConfigurationException, IOException
 	{
-		setupDOMParser();
-		return dBuilder.parse(new InputSource(new StringReader(xml)));
+		return getDocumentBuilder().parse(new InputSource(new StringReader(xml)));
 	}
 
 	public static Document getDOMDocument(File file) throws SAXException, ParserConfigurationException, IOException
 	{
-		setupDOMParser();
-		return dBuilder.parse(file);
+		return getDocumentBuilder().parse(file);
 	}
 
 	public static String getStringFromDOM(Document input, boolean full) throws TransformerException
@@ -187,27 +254,50 @@ public abstract class FNX
 
 	public static String getStringFromDOM(DOMSource input, StreamResult output, boolean full) throws TransformerException
 	{
-		TransformerFactory tf = TransformerFactory.newInstance();
-		Transformer t = tf.newTransformer();
+		getTransformer(full).transform(input, output);
 
-		if(full)
-		{
-			t.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "no");
-		}
-		else
-		{
-			t.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-		}
+		return output.getWriter().toString();
+	}
 
-		t.setOutputProperty(OutputKeys.METHOD, "xml");
-		t.setOutputProperty(OutputKeys.INDENT, "yes");
-		t.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
-		// t.setOutputProperty(OutputKeys.STANDALONE, "yes");
-		t.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
+	// Maskiert Text bzw. Attributwerte wie der Transformer in getStringFromDOM().
+	public static StringBuilder escapeXML(StringBuilder out, String value, boolean attribute)
+	{
+		for(int i = 0; i < value.length(); i++)
+		{
+			char c = value.charAt(i);
 
-		t.transform(input, output);
+			switch(c)
+			{
+				case '&':  out.append("&amp;"); break;
+				case '<':  out.append("&lt;");  break;
+				case '>':  out.append("&gt;");  break;
+				case '\r': out.append("&#13;"); break;
+
+				case '"':
+					out.append(attribute ? "&quot;" : "\"");
+					break;
+
+				case '\n':
+					out.append(attribute ? "&#10;" : "\n");
+					break;
+
+				case '\t':
+					out.append(attribute ? "&#9;" : "\t");
+					break;
+
+				default:
+					if(Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1)))
+					{
+						out.append("&#").append(Character.toCodePoint(c, value.charAt(++i))).append(';');
+					}
+					else
+					{
+						out.append(c);
+					}
+			}
+		}
 
-		return output.getWriter().toString();
+		return out;
 	}
 
 	public static String getWinNL(String string)
@@ -251,48 +341,284 @@ public abstract class FNX
 	}
 	*/
 
-	public static String sha512(File file)
+	// Schreibt den Text (UTF-8, Zeilenenden immer CRLF) zuerst in eine temporäre
+	// Datei im selben Verzeichnis, die danach atomar umbenannt wird. Somit liest
+	// das Spiel niemals eine halb geschriebene Datei. Gibt die Anzahl Bytes zurück.
+	// Symlinks werden aufgelöst, damit (wie früher) das eigentliche Ziel
+	// geschrieben wird. Hat die Datei mehrere Hardlinks, würde das Umbenennen
+	// sie trennen, dann wird sie wie früher direkt überschrieben.
+	public static long writeFile(File file, String content) throws IOException
 	{
-		int length;
-		byte[] block;
-		byte[] bytes;
+		Path target = file.getAbsoluteFile().toPath();
 
-		InputStream in;
-		MessageDigest md;
+		if(Files.exists(target))
+		{
+			target = target.toRealPath();
 
-		StringBuilder sb;
-		String hash = null;
+			if(getLinkCount(target) > 1)
+			{
+				try(FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+				{
+					return writeChannel(channel, content);
+				}
+			}
+		}
+		else if(Files.isSymbolicLink(target))
+		{
+			// Ziel existiert (noch) nicht, wird aber wie früher angelegt.
+			target = target.resolveSibling(Files.readSymbolicLink(target));
+		}
+
+		Path tmp = createTempFile(target);
+		long bytes;
+
+		try
+		{
+			if(Files.exists(target))
+			{
+				copyAttributes(target, tmp);
+			}
+
+			try(FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+			{
+				bytes = writeChannel(channel, content);
+			}
+
+			try
+			{
+				Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch(AtomicMoveNotSupportedException e)
+			{
+				Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally
+		{
+			Files.deleteIfExists(tmp);
+		}
 
+		return bytes;
+	}
+
+	// Nur unter Unix bekannt, sonst wird 1 angenommen.
+	private static int getLinkCount(Path path)
+	{
 		try
 		{
-			in = new FileInputStream(file);
-			md = MessageDigest.getInstance("SHA-512");
+			return (Integer) Files.getAttribute(path, "unix:nlink");
+		}
+		catch(UnsupportedOperationException|IllegalArgumentException|IOException e)
+		{
+			return 1;
+		}
+	}
+
+	private static long writeChannel(FileChannel channel, String content) throws IOException
+	{
+		long bytes = 0;
+
+		CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+		CharBuffer in = CharBuffer.allocate(WRITE_BUFFER);
+		ByteBuffer out = ByteBuffer.allocateDirect(WRITE_BUFFER * 3);
+		char last = 0;
+
+		for(int i = 0; i < content.length(); i++)
+		{
+			char c = content.charAt(i);
+
+			if(in.remaining() < 2)
+			{
+				in.flip();
+				bytes += encode(encoder, in, out, channel, false);
+				in.compact();
+			}
+
+			if(c == '\n' && last != '\r')
+			{
+				in.put('\r');
+			}
+
+			in.put(c);
+			last = c;
+		}
+
+		in.flip();
+		bytes += encode(encoder, in, out, channel, true);
+
+		encoder.flush(out);
+		out.flip();
+
+		while(out.hasRemaining())
+		{
+			bytes += channel.write(out);
+		}
+
+		channel.force(true);
+
+		return bytes;
+	}
+
+	// Files.createTempFile() würde die Datei unter POSIX immer mit 0600
+	// anlegen. Hier gelten, wie bei einer normal angelegten Datei, die
+	// Standardrechte (umask bzw. vererbte ACL) des Verzeichnisses.
+	private static Path createTempFile(Path target) throws IOException
+	{
+		while(true)
+		{
+			Path tmp = target.resolveSibling(String.format(".%s.%d.tmp", target.getFileName(), ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE));
 
-			block = new byte[4096];
-			while((length = in.read(block)) > 0)
+			try
 			{
-				md.update(block, 0, length);
+				return Files.createFile(tmp);
 			}
+			catch(FileAlreadyExistsException e)
+			{
+				continue;
+			}
+		}
+	}
+
+	// Übernimmt Rechte und Besitzer der bestehenden Datei, damit sie nach
+	// dem Umbenennen unverändert bleiben. Den Besitzer darf meist nur root
+	// ändern, das wird daher ignoriert, falls es nicht klappt. Die ACL wird
+	// bewusst nicht kopiert: Die temporäre Datei erbt bereits die ACL des
+	// Verzeichnisses, eine Kopie würde geerbte Einträge zu expliziten machen.
+	private static void copyAttributes(Path source, Path target) throws IOException
+	{
+		PosixFileAttributeView posix = Files.getFileAttributeView(source, PosixFileAttributeView.class);
+		AclFileAttributeView acl = Files.getFileAttributeView(source, AclFileAttributeView.class);
 
-			bytes = md.digest();
-			sb = new StringBuilder();
+		if(posix != null)
+		{
+			PosixFileAttributes attributes = posix.readAttributes();
+			PosixFileAttributeView view = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+			view.setPermissions(attributes.permissions());
 
-			for(int i = 0; i < bytes.length; i++)
+			try
+			{
+				view.setGroup(attributes.group());
+				view.setOwner(attributes.owner());
+			}
+			catch(IOException e)
 			{
-				sb.append(Integer.toString((bytes[i] & 0xff) + 0x100, 16).substring(1));
+				// Nicht erlaubt, siehe oben.
 			}
+		}
+
+		if(acl != null)
+		{
+			AclFileAttributeView view = Files.getFileAttributeView(target, AclFileAttributeView.class);
 
-			hash = sb.toString();
+			try
+			{
+				view.setOwner(acl.getOwner());
+			}
+			catch(IOException e)
+			{
+				// Nicht erlaubt, siehe oben.
+			}
+		}
+	}
+
+	private static long encode(CharsetEncoder encoder, CharBuffer in, ByteBuffer out, FileChannel channel, boolean end) throws IOException
+	{
+		long bytes = 0;
+
+		while(true)
+		{
+			CoderResult result = encoder.encode(in, out, end);
+
+			if(result.isError())
+			{
+				result.throwException();
+			}
+
+			out.flip();
+
+			while(out.hasRemaining())
+			{
+				bytes += channel.write(out);
+			}
+
+			out.clear();
+
+			if(result.isUnderflow())
+			{
+				return bytes;
+			}
+		}
+	}
+
+	// Liest die Datei blockweise über einen direkten Puffer. Absichtlich
+	// ohne mmap: Unter Windows könnte die Datei (z.B. Assembly-CSharp.dll)
+	// sonst bis zur nächsten GC nicht gelöscht oder ersetzt werden.
+	public static String sha512(File file)
+	{
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			MessageDigest md = MessageDigest.getInstance("SHA-512");
+			ByteBuffer buffer = digestBuffer.get();
+			buffer.clear();
+
+			while(channel.read(buffer) >= 0)
+			{
+				buffer.flip();
+				md.update(buffer);
+				buffer.clear();
+			}
+
+			return toHex(md.digest());
 		}
 		catch(NoSuchAlgorithmException|IOException e)
 		{
 			e.printStackTrace();
 			return null;
 		}
+	}
+
+	// Wie sha512(File), das Ergebnis wird aber zusätzlich in den übergebenen
+	// Preferences gespeichert. Solange sich Pfad, Größe und Änderungszeit
+	// nicht ändern, muss die Datei (auch nach einem Neustart) nicht erneut
+	// gelesen werden. Der Schlüssel ist ein Hash des Pfads, da Preferences
+	// nur Schlüssel mit maximal 80 Zeichen erlauben.
+	public static String sha512(File file, Preferences cache)
+	{
+		String path = file.getAbsolutePath();
+		String key = sha512(path).substring(0, 64);
+		String stamp = String.format("%d:%d:", file.length(), file.lastModified());
+		String value = cache.get(key, null);
+
+		if(value != null && value.startsWith(stamp))
+		{
+			return value.substring(stamp.length());
+		}
+
+		String hash = sha512(file);
+
+		// Falls die Datei inzwischen verändert wurde, wäre der Hash u.U.
+		// bereits veraltet. Er wird dann beim nächsten Mal neu berechnet.
+		if(hash != null && stamp.equals(String.format("%d:%d:", file.length(), file.lastModified())))
+		{
+			cache.put(key, stamp + hash);
+		}
 
 		return hash;
 	}
 
+	public static String toHex(byte[] bytes)
+	{
+		char[] hex = new char[bytes.length * 2];
+
+		for(int i = 0; i < bytes.length; i++)
+		{
+			hex[i * 2] = HEX[(bytes[i] >> 4) & 0x0f];
+			hex[i * 2 + 1] = HEX[bytes[i] & 0x0f];
+		}
+
+		return new String(hex);
+	}
+
 	public static String sha512(String input)
 	{
 		try
@@ -308,29 +634,15 @@ public abstract class FNX
 
 	public static String sha512(byte[] input)
 	{
-		byte[] bytes;
-		StringBuilder sb;
-		String hash = null;
-
 		try
 		{
-			bytes = MessageDigest.getInstance("SHA-512").digest(input);
-			sb = new StringBuilder();
-
-			for(int i = 0; i < bytes.length; i++)
-			{
-				sb.append(Integer.toString((bytes[i] & 0xff) + 0x100, 16).substring(1));
-			}
-
-			hash = sb.toString();
+			return toHex(MessageDigest.getInstance("SHA-512").digest(input));
 		}
 		catch(NoSuchAlgorithmException e)
 		{
 			e.printStackTrace();
 			return null;
 		}
-
-		return hash;
 	}
 
 	public static void windowToFront(JFrame window)
@@ -354,29 +666,12 @@ public abstract class FNX
 		}
 	}
 
+	// Gibt das Dokument ohne leere Textknoten und eingerückt (CRLF) zurück.
+	// Das Ergebnis ist identisch zur früheren Variante (normalize, XPath und
+	// Transformer), das Dokument selbst wird aber nicht mehr verändert.
 	public static String getCleanXML(Document doc)
 	{
-		String XML;
-
-		try
-		{
-			doc.getDocumentElement().normalize();
-			XPathExpression xpath = XPathFactory.newInstance().newXPath().compile("//text()[normalize-space(.) = '']");
-			NodeList blankTextNodes = (NodeList) xpath.evaluate(doc, XPathConstants.NODESET);
-
-			for(int i = 0; i < blankTextNodes.getLength(); i++)
-			{
-				blankTextNodes.item(i).getParentNode().removeChild(blankTextNodes.item(i));
-			}
-
-			return FNX.getStringFromDOM(doc, true);
-		}
-		catch(Exception e)
-		{
-			e.printStackTrace();
-		}
-
-		return null;
+		return new FNX_XMLWriter().write(doc);
 	}
 
 	public static JEditorPane getHTMLPane(String html)
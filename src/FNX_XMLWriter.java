@@ -0,0 +1,423 @@
+/**
+ * FNX_XMLWriter.java: Single pass pretty printer for DOM documents
+ * Copyright (C) 2018 Christian Schrötter <cs@fnx.li>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301  USA
+ */
+
+import java.util.ArrayList;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+// Ersetzt normalize() + XPath + Transformer in FNX.getCleanXML(). Das
+// Dokument wird nur einmal durchlaufen und dabei nicht verändert. Leere
+// Textknoten (nur Whitespace) werden einfach übersprungen.
+//
+// Die Ausgabe entspricht Byte für Byte der des Transformers (JDK 9+, inkl.
+// seiner Eigenheiten bei CDATA, gemischtem Inhalt und der XML-Deklaration).
+// Dazu wird dessen Zustand (Anzahl der Kinder, vorheriger Text, gepufferter
+// Text) hier nachgebildet.
+public class FNX_XMLWriter
+{
+	final private static String NL     = "\r\n";
+	final private static String INDENT = "  ";
+
+	private StringBuilder out;
+
+	// Zustand des Transformers (siehe ToStream).
+	private int     depth;
+	private int     children;
+	private boolean prevText;
+	private boolean newLine;
+	private boolean open;
+	private String  pending;
+
+	public String write(Document doc)
+	{
+		this.out = new StringBuilder(64 * 1024);
+		this.depth = 0;
+		this.children = 0;
+		this.prevText = false;
+		this.newLine = false;
+		this.open = false;
+		this.pending = null;
+
+		boolean standalone = doc.getXmlStandalone();
+		String version = (doc.getXmlVersion() != null) ? doc.getXmlVersion() : "1.0";
+		String encoding = (doc.getXmlEncoding() != null) ? doc.getXmlEncoding() : "UTF-8";
+
+		this.out.append("<?xml version=\"").append(version).append("\" encoding=\"").append(encoding).append('"');
+
+		if(!standalone)
+		{
+			this.out.append(" standalone=\"no\"");
+		}
+
+		this.out.append("?>");
+
+		if(!standalone)
+		{
+			this.out.append(NL);
+		}
+
+		for(Node child = doc.getFirstChild(); child != null; child = child.getNextSibling())
+		{
+			if(child.getNodeType() != Node.DOCUMENT_TYPE_NODE)
+			{
+				this.writeIdentical(child);
+			}
+		}
+
+		this.out.append(NL);
+
+		String result = this.out.toString();
+		this.out = null;
+
+		return result;
+	}
+
+	// Bildet die Ereignisse (startElement, characters, ...) des Transformers
+	// nach. Text wird wie dort erst beim nächsten Ereignis geschrieben, da
+	// erst dann feststeht, ob er eingerückt wird.
+	private void writeIdentical(Node node)
+	{
+		switch(node.getNodeType())
+		{
+			case Node.ELEMENT_NODE:
+				Element element = (Element) node;
+				ArrayList<Node> nodes = this.getChildren(element);
+
+				this.children++;
+				this.flush(false);
+				this.close();
+
+				if(this.depth > 0 && this.newLine)
+				{
+					this.indent(this.depth);
+				}
+
+				this.newLine = true;
+				this.out.append('<').append(element.getTagName());
+				this.writeAttributes(element);
+
+				int count = this.children;
+				this.children = 0;
+				this.depth++;
+				this.prevText = false;
+				this.open = true;
+
+				for(int i = 0; i < nodes.size(); i++)
+				{
+					this.writeIdentical(nodes.get(i));
+				}
+
+				this.flush(false);
+
+				if(this.open)
+				{
+					this.out.append("/>");
+					this.open = false;
+				}
+				else
+				{
+					if(this.children > 1 || !this.prevText)
+					{
+						this.indent(this.depth - 1);
+					}
+
+					this.out.append("</").append(element.getTagName()).append('>');
+				}
+
+				this.depth--;
+				this.children = count;
+				this.prevText = false;
+				break;
+
+			case Node.TEXT_NODE:
+				this.close();
+				this.pending = node.getNodeValue();
+				break;
+
+			case Node.CDATA_SECTION_NODE:
+				this.flush(true);
+
+				if(node.getNodeValue().length() > 0)
+				{
+					this.close();
+
+					if(this.depth > 0 && this.children > 1)
+					{
+						this.indent(this.depth);
+					}
+
+					this.writeCDATA(node.getNodeValue());
+					this.prevText = true;
+				}
+				break;
+
+			case Node.COMMENT_NODE:
+			case Node.PROCESSING_INSTRUCTION_NODE:
+				this.children++;
+				this.flush(false);
+				this.close();
+
+				if(this.depth > 0)
+				{
+					this.indent(this.depth);
+				}
+
+				this.writeNode(node);
+				this.newLine = true;
+				break;
+		}
+	}
+
+	// Schließt das Start-Tag des aktuellen Elements, sobald es Inhalt gibt.
+	private void close()
+	{
+		if(this.open)
+		{
+			this.out.append('>');
+			this.open = false;
+		}
+	}
+
+	// Schreibt gepufferten Text (ToStream.flushCharactersBuffer).
+	private void flush(boolean text)
+	{
+		if(this.pending == null)
+		{
+			return;
+		}
+
+		String value = this.pending;
+		this.pending = null;
+
+		if(!text)
+		{
+			this.children++;
+		}
+
+		if(this.depth > 0 && this.children > 1)
+		{
+			this.indent(this.depth);
+			this.newLine = true;
+
+			int start = 0;
+
+			while(start < value.length() && value.charAt(start) == '\n')
+			{
+				start++;
+			}
+
+			value = value.substring(start);
+		}
+
+		this.writeRaw(value, true);
+		this.prevText = true;
+	}
+
+	private void indent(int depth)
+	{
+		if(this.newLine)
+		{
+			this.out.append(NL);
+		}
+
+		for(int i = 0; i < depth; i++)
+		{
+			this.out.append(INDENT);
+		}
+	}
+
+	private void writeNode(Node node)
+	{
+		String value = node.getNodeValue();
+
+		switch(node.getNodeType())
+		{
+			case Node.TEXT_NODE:
+				this.writeRaw(value, true);
+				break;
+
+			case Node.CDATA_SECTION_NODE:
+				this.writeCDATA(value);
+				break;
+
+			case Node.COMMENT_NODE:
+				// Wie beim Transformer: "--" und ein "-" am Ende sind im
+				// Kommentar nicht erlaubt und werden durch Leerzeichen getrennt.
+				value = value.replace("--", "- -").replace("--", "- -");
+				this.out.append("<!--");
+				this.writeRaw(value.endsWith("-") ? value + " " : value, false);
+				this.out.append("-->");
+				break;
+
+			case Node.PROCESSING_INSTRUCTION_NODE:
+				this.out.append("<?").append(node.getNodeName());
+
+				if(value.length() > 0 && !Character.isSpaceChar(value.charAt(0)))
+				{
+					this.out.append(' ');
+				}
+
+				// Wie beim Transformer wird nur das erste "?>" getrennt.
+				int end = value.indexOf("?>");
+				this.writeRaw((end < 0) ? value : value.substring(0, end) + "? >" + value.substring(end + 2), false);
+				this.out.append("?>");
+				break;
+		}
+	}
+
+	// Leere CDATA-Abschnitte werden (wie beim Transformer) nicht geschrieben.
+	private void writeCDATA(String value)
+	{
+		if(value.length() > 0)
+		{
+			this.out.append("<![CDATA[");
+			this.writeRaw(value.replace("]]>", "]]]]><![CDATA[>"), false);
+			this.out.append("]]>");
+		}
+	}
+
+	// Namespace-Deklarationen kommen (wie beim Transformer) zuerst.
+	private void writeAttributes(Element element)
+	{
+		NamedNodeMap attributes = element.getAttributes();
+
+		for(int pass = 0; pass < 2; pass++)
+		{
+			for(int i = 0; i < attributes.getLength(); i++)
+			{
+				Node attribute = attributes.item(i);
+				String name = attribute.getNodeName();
+
+				if((pass == 0) == (name.equals("xmlns") || name.startsWith("xmlns:")))
+				{
+					this.out.append(' ').append(name).append("=\"");
+					FNX.escapeXML(this.out, attribute.getNodeValue(), true).append('"');
+				}
+			}
+		}
+	}
+
+	// Liefert alle relevanten Kinder. Benachbarte Textknoten werden (wie
+	// bei normalize) zusammengefasst. Für XPath bilden Text und CDATA
+	// zusammen einen Textknoten, besteht dieser nur aus Whitespace, wurde
+	// bisher nur der erste DOM-Knoten daraus entfernt (reiner CDATA gar
+	// nicht). Das wird hier für die identische Ausgabe nachgebildet.
+	private ArrayList<Node> getChildren(Element element)
+	{
+		ArrayList<Node> children = new ArrayList<Node>();
+		Node child = element.getFirstChild();
+
+		while(child != null)
+		{
+			if(!isText(child))
+			{
+				children.add(child);
+				child = child.getNextSibling();
+				continue;
+			}
+
+			StringBuilder value = new StringBuilder();
+			boolean text = false;
+			int first = children.size();
+
+			while(child != null && isText(child))
+			{
+				if(child.getNodeType() == Node.CDATA_SECTION_NODE)
+				{
+					value.append(child.getNodeValue());
+					children.add(child);
+					child = child.getNextSibling();
+					continue;
+				}
+
+				Node last = child;
+				String merged = child.getNodeValue();
+
+				while(last.getNextSibling() != null && last.getNextSibling().getNodeType() == Node.TEXT_NODE)
+				{
+					last = last.getNextSibling();
+					merged += last.getNodeValue();
+				}
+
+				value.append(merged);
+				children.add((last == child) ? child : element.getOwnerDocument().createTextNode(merged));
+				child = last.getNextSibling();
+				text = true;
+			}
+
+			if(text && isWhitespace(value))
+			{
+				children.remove(first);
+			}
+		}
+
+		return children;
+	}
+
+	private static boolean isText(Node node)
+	{
+		return node.getNodeType() == Node.TEXT_NODE || node.getNodeType() == Node.CDATA_SECTION_NODE;
+	}
+
+	// Entspricht normalize-space(.) = '' in XPath.
+	private static boolean isWhitespace(CharSequence text)
+	{
+		for(int i = 0; i < text.length(); i++)
+		{
+			char c = text.charAt(i);
+
+			if(c != ' ' && c != '\t' && c != '\r' && c != '\n')
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	// Zeilenumbrüche werden immer als CRLF geschrieben.
+	private void writeRaw(String value, boolean escape)
+	{
+		int start = 0;
+
+		for(int end = value.indexOf('\n'); end >= 0; end = value.indexOf('\n', start))
+		{
+			this.writeSegment(value.substring(start, end), escape);
+			this.out.append(NL);
+			start = end + 1;
+		}
+
+		this.writeSegment(value.substring(start), escape);
+	}
+
+	private void writeSegment(String value, boolean escape)
+	{
+		if(escape)
+		{
+			FNX.escapeXML(this.out, value, false);
+		}
+		else
+		{
+			this.out.append(value);
+		}
+	}
+}
@@ -0,0 +1,339 @@
+/**
+ * GhostData.java: Decoder for the binary data of a GhostDataPair
+ * Copyright (C) 2018 Christian Schrötter <cs@fnx.li>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301  USA
+ */
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Die Daten sind mit Google's Protocol Buffers kodiert. Da es keine
+// offizielle .proto Datei gibt, wurde das Layout aus dem früheren
+// GhostPattern übernommen. Es werden nur die bekannten Felder gelesen,
+// alles andere (z.B. die eigentliche Aufzeichnung) wird übersprungen.
+public class GhostData
+{
+	// Tag = (Feldnummer << 3) | Wire-Type
+	final private static int TAG_HEADER   = 0x18; // 3: varint
+	final private static int TAG_SETTINGS = 0x22; // 4: length-delimited
+	final private static int TAG_SKI_C    = 0x08; // 4.1: varint
+	final private static int TAG_SKI_G    = 0x10; // 4.2: varint
+	final private static int TAG_SKI_S    = 0x18; // 4.3: varint
+	final private static int TAG_REPLAY   = 0x22; // 4: length-delimited
+	final private static int TAG_MARKER_A = 0x28; // 5: varint
+	final private static int TAG_MARKER_B = 0x30; // 6: varint
+	final private static int TAG_TICKET   = 0x08; // 1: varint
+	final private static int TAG_TICKET_E = 0x2A; // 5: length-delimited
+	final private static int TAG_PLAYER   = 0x32; // 6: length-delimited
+	final private static int TAG_NICKNAME = 0x0A; // 6.1: length-delimited
+	final private static int TAG_EDITION  = 0x12; // 6.2: length-delimited
+	final private static int TAG_FLAG     = 0x18; // 6.3: varint
+	final private static int TAG_TRAILER  = 0x40; // 8: varint
+
+	final private static int MAX_STRING   = 32;
+	final private static int MAX_TICKET   = 5;
+
+	// Bereits dekodierte Geister werden zwischengespeichert, damit sie
+	// bei einem Profilwechsel oder nach einem Reload (Fast-Follow!) nicht
+	// erneut dekodiert werden müssen. Der Schlüssel sind die Base64-Daten
+	// selbst, bei einem Treffer werden sie also immer vollständig verglichen
+	// (meist ist es ohnehin derselbe String wie im DOM). Sie zählen daher
+	// auch zur Größe des Caches.
+	final private static long CACHE_BUDGET = 32L * 1024L * 1024L;
+	final private static int  CACHE_ENTRY  = 128; // Geschätzter Overhead
+
+	private static LinkedHashMap<String,GhostData> Cache = new LinkedHashMap<String,GhostData>(256, 0.75f, true);
+	private static long CacheSize   = 0L;
+	private static long CacheHits   = 0L;
+	private static long CacheMisses = 0L;
+
+	private String  Nickname;
+	private String  Edition;
+	private int     Flag;
+	private int[]   Ski;
+	private boolean Ticket;
+
+	private GhostData()
+	{
+
+	}
+
+	public String getNickname()
+	{
+		return this.Nickname;
+	}
+
+	public String getEdition()
+	{
+		return this.Edition;
+	}
+
+	public int getFlag()
+	{
+		return this.Flag;
+	}
+
+	public int[] getSki()
+	{
+		return this.Ski.clone();
+	}
+
+	public boolean hasTicket()
+	{
+		return this.Ticket;
+	}
+
+	// Dekodiert das Data-Attribut (Base64) oder liefert das Ergebnis aus dem
+	// Cache. ACHTUNG: Das Ergebnis wird ggf. mit anderen Geistern geteilt!
+	public static GhostData decode(String raw) throws GhostException
+	{
+		synchronized(GhostData.class)
+		{
+			GhostData data = Cache.get(raw);
+
+			if(data != null)
+			{
+				CacheHits++;
+				return data;
+			}
+
+			CacheMisses++;
+		}
+
+		// Fehlerhafte Daten (IllegalArgumentException) landen nicht im Cache.
+		GhostData data = decode(Base64.getDecoder().decode(raw));
+
+		synchronized(GhostData.class)
+		{
+			if(Cache.put(raw, data) == null)
+			{
+				CacheSize += getSize(raw, data);
+			}
+
+			Iterator<Map.Entry<String,GhostData>> it = Cache.entrySet().iterator();
+
+			while(CacheSize > CACHE_BUDGET && it.hasNext())
+			{
+				Map.Entry<String,GhostData> entry = it.next();
+				CacheSize -= getSize(entry.getKey(), entry.getValue());
+				it.remove();
+			}
+		}
+
+		return data;
+	}
+
+	public static synchronized String getCacheInfo()
+	{
+		return String.format("GhostData cache: %d entries, %d/%d KB, %d hits, %d misses", Cache.size(), CacheSize / 1024, CACHE_BUDGET / 1024, CacheHits, CacheMisses);
+	}
+
+	public static synchronized void clearCache()
+	{
+		Cache.clear();
+		CacheSize = 0L;
+	}
+
+	private static long getSize(String raw, GhostData data)
+	{
+		return CACHE_ENTRY + raw.length() + 2 * (data.Nickname.length() + data.Edition.length());
+	}
+
+	// Liest die Daten in einem einzigen Durchlauf. Abgesehen vom Ergebnis
+	// (Nickname, Edition und Ski-Array) wird dabei nichts angelegt.
+	public static GhostData decode(byte[] data) throws GhostException
+	{
+		int length = data.length;
+
+		// Am Ende stehen immer die Spielerdaten und ein einzelnes Byte.
+		if(length < 4 || (data[length - 2] & 0xff) != TAG_TRAILER || (data[length - 1] & 0x80) != 0)
+		{
+			throw new GhostException("GhostData: Missing or invalid nickname");
+		}
+
+		int player = findPlayer(data, length - 2);
+
+		if(player < 0)
+		{
+			throw new GhostException("GhostData: Missing or invalid nickname");
+		}
+
+		for(int i = 0; i + 4 <= player; i++)
+		{
+			if((data[i] & 0xff) != TAG_HEADER || (data[i + 2] & 0xff) != TAG_SETTINGS)
+			{
+				continue;
+			}
+
+			// Die Länge der Einstellungen wird (wie beim alten GhostPattern)
+			// nicht geprüft, da nicht bekannt ist, was sie alles umfasst.
+			int[] ski = new int[3];
+			int pos = i + 4;
+
+			pos = readSki(data, pos, player, TAG_SKI_C, ski, 0);
+			pos = readSki(data, pos, player, TAG_SKI_G, ski, 1);
+			pos = readSki(data, pos, player, TAG_SKI_S, ski, 2);
+
+			if(pos >= player || (data[pos] & 0xff) != TAG_REPLAY)
+			{
+				continue;
+			}
+
+			// Die Aufzeichnung selbst interessiert uns nicht. Gesucht
+			// wird nur die erste Markierung, danach folgt ggf. das Ticket.
+			for(int p = pos + 3; p + 4 <= player; p++)
+			{
+				if((data[p] & 0xff) != TAG_MARKER_A || (data[p + 2] & 0xff) != TAG_MARKER_B)
+				{
+					continue;
+				}
+
+				GhostData result = new GhostData();
+				result.Ski = ski;
+				result.Ticket = hasTicket(data, p + 4, player);
+				result.readPlayer(data, player, length - 2);
+
+				return result;
+			}
+
+			break;
+		}
+
+		throw new GhostException("GhostData: Missing or invalid nickname");
+	}
+
+	// Sucht den ersten Beginn der Spielerdaten, die exakt bis
+	// zum abschließenden Trailer (end) reichen müssen. Ob der
+	// Trailer noch dazu gehört, ist unklar und wird ignoriert.
+	private static int findPlayer(byte[] data, int end)
+	{
+		for(int q = Math.max(0, end - 4 - 2 * (MAX_STRING + 2) - 2); q + 4 <= end; q++)
+		{
+			if((data[q] & 0xff) == TAG_PLAYER && (data[q + 2] & 0xff) == TAG_NICKNAME && playerEnd(data, q + 2, end) == end)
+			{
+				return q;
+			}
+		}
+
+		return -1;
+	}
+
+	// Gibt das Ende der Spielerdaten zurück oder -1, falls
+	// Nickname, Edition oder Flag nicht gelesen werden können.
+	private static int playerEnd(byte[] data, int pos, int limit)
+	{
+		for(int i = 0, tag = TAG_NICKNAME; i < 2; i++, tag = TAG_EDITION)
+		{
+			if(pos + 2 > limit || (data[pos] & 0xff) != tag)
+			{
+				return -1;
+			}
+
+			int length = data[pos + 1] & 0xff;
+			pos += 2 + length;
+
+			if(length == 0 || length > MAX_STRING || pos >= limit)
+			{
+				return -1;
+			}
+		}
+
+		if((data[pos] & 0xff) != TAG_FLAG)
+		{
+			return -1;
+		}
+
+		return varintEnd(data, pos + 1, limit);
+	}
+
+	private static int readSki(byte[] data, int pos, int limit, int tag, int[] ski, int index)
+	{
+		if(pos < limit && (data[pos] & 0xff) == tag)
+		{
+			int end = varintEnd(data, pos + 1, limit);
+
+			if(end > 0)
+			{
+				ski[index] = (int) varintValue(data, pos + 1, end);
+				return end;
+			}
+		}
+
+		return pos;
+	}
+
+	private static boolean hasTicket(byte[] data, int pos, int limit)
+	{
+		if(pos < limit && (data[pos] & 0xff) == TAG_TICKET)
+		{
+			int end = varintEnd(data, pos + 1, Math.min(limit, pos + 1 + MAX_TICKET));
+
+			if(end > 0 && end < limit && (data[end] & 0xff) == TAG_TICKET_E)
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	// Die Struktur wurde bereits von findPlayer() geprüft.
+	private void readPlayer(byte[] data, int pos, int end)
+	{
+		int nickLength = data[pos + 3] & 0xff;
+		int nickStart = pos + 4;
+
+		int editionLength = data[nickStart + nickLength + 1] & 0xff;
+		int editionStart = nickStart + nickLength + 2;
+
+		int flagStart = editionStart + editionLength + 1;
+
+		this.Nickname = new String(data, nickStart, nickLength, StandardCharsets.ISO_8859_1);
+		this.Edition = new String(data, editionStart, editionLength, StandardCharsets.ISO_8859_1);
+		this.Flag = (int) varintValue(data, flagStart, end);
+	}
+
+	// Gibt die Position nach dem Varint zurück, oder -1 wenn er
+	// nicht innerhalb der Grenze (limit) abgeschlossen wird.
+	private static int varintEnd(byte[] data, int pos, int limit)
+	{
+		for(int i = pos; i < limit && i < pos + 10; i++)
+		{
+			if((data[i] & 0x80) == 0)
+			{
+				return i + 1;
+			}
+		}
+
+		return -1;
+	}
+
+	private static long varintValue(byte[] data, int pos, int end)
+	{
+		long value = 0;
+
+		for(int i = pos, shift = 0; i < end; i++, shift += 7)
+		{
+			value |= (long) (data[i] & 0x7f) << shift;
+		}
+
+		return value;
+	}
+}
@@ -17,10 +17,12 @@
  * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301  USA
  */
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.io.IOException;
 import java.io.StringReader;
-import java.io.UnsupportedEncodingException;
 
 import java.lang.IllegalArgumentException;
 
@@ -32,39 +34,40 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Base64;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.ParserConfigurationException;
 
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import javax.xml.transform.TransformerException;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 public class GhostElement
 {
-	private static Pattern GhostPattern;
-	private static Pattern GhostsPattern;
-
-	private Element XML;
-	private String  Hash;
-	private boolean Ticket;
-	private int     GameMode;
-	private String  Track;
-	private int     Weather;
-	private int     Time;
-	private String  DataRaw;
-	private byte[]  DataBinary;
-	private String  Nickname;
-	private int[]   Ski;
+	final private static String XML_TAG_GHOST   = "GhostDataPair";
+	final private static String XML_TAG_WRAPPER = "GhostList";
+
+	private static Pattern         GhostsPattern;
+	private static XMLInputFactory xmlInputFactory;
+
+	// Die eigentlichen Daten liegen im GhostStore (Slot). Übrig
+	// bleiben hier nur das DOM-Element und der (optionale) Hash.
+	// Geister ohne Profil haben einen eigenen GhostStore_Single.
+	private Element    XML;
+	private String     Hash;
+	private GhostStore Store;
+	private int        Slot = -1;
 
 	GhostElement()
 	{
@@ -76,6 +79,12 @@ public class GhostElement
 		this.importGhost(xml);
 	}
 
+	GhostElement(Node xml, GhostStore store) throws GhostException
+	{
+		this.Store = store;
+		this.importGhost(xml);
+	}
+
 	GhostElement(Element xml) throws GhostException
 	{
 		this.importGhost(xml);
@@ -88,6 +97,25 @@ public class GhostElement
 
 	public static GhostElement[] parseGhosts(File file) throws GhostException
 	{
+		ArrayList<GhostElement> Ghosts = new ArrayList<GhostElement>();
+
+		try(InputStream in = new BufferedInputStream(new FileInputStream(file)))
+		{
+			streamGhosts(getXMLInputFactory().createXMLStreamReader(in), Ghosts::add);
+
+			return Ghosts.toArray(new GhostElement[Ghosts.size()]);
+		}
+		catch(XMLStreamException e)
+		{
+			// Kein wohlgeformtes XML, z.B. ein Inhalt aus der Zwischenablage.
+			// Dann wird die Datei doch noch komplett eingelesen, wie früher.
+		}
+		catch(IOException e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+
 		try
 		{
 			return parseGhosts(new String(Files.readAllBytes(Paths.get(file.getAbsolutePath())), StandardCharsets.UTF_8));
@@ -102,12 +130,34 @@ public class GhostElement
 
 	public static GhostElement[] parseGhosts(String xml) throws GhostException
 	{
+		ArrayList<GhostElement> Ghosts = new ArrayList<GhostElement>();
+
+		try
+		{
+			// Mehrere <GhostDataPair> ohne Wurzelelement (Zwischenablage!)
+			// sind kein gültiges XML. Deshalb wird immer eines ergänzt.
+			String content = xml.trim();
+
+			if(content.startsWith("<?xml"))
+			{
+				content = content.substring(content.indexOf("?>") + 2);
+			}
+
+			streamGhosts(getXMLInputFactory().createXMLStreamReader(new StringReader(String.format("<%1$s>%2$s</%1$s>", XML_TAG_WRAPPER, content))), Ghosts::add);
+
+			return Ghosts.toArray(new GhostElement[Ghosts.size()]);
+		}
+		catch(XMLStreamException e)
+		{
+			// Fehlerhaftes XML: Dann wird nach einzelnen Tags gesucht.
+			Ghosts.clear();
+		}
+
 		if(GhostsPattern == null)
 		{
 			GhostsPattern = Pattern.compile("(<GhostDataPair[^>]+>)", Pattern.CASE_INSENSITIVE);
 		}
 
-		ArrayList<GhostElement> Ghosts = new ArrayList<GhostElement>();
 		Matcher GhostsMatcher = GhostsPattern.matcher(xml);
 
 		while(GhostsMatcher.find())
@@ -118,59 +168,130 @@ public class GhostElement
 		return Ghosts.toArray(new GhostElement[Ghosts.size()]);
 	}
 
-	public void importGhost(String xml) throws GhostException
+	private static XMLInputFactory getXMLInputFactory()
 	{
-		try
+		if(xmlInputFactory == null)
 		{
-			DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-			DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+			factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+			xmlInputFactory = factory;
+		}
 
-			Document doc = dBuilder.parse(new InputSource(new StringReader(xml)));
-			NodeList gdp = doc.getElementsByTagName("GhostDataPair");
+		return xmlInputFactory;
+	}
 
-			if(gdp.getLength() == 0)
-			{
-				throw new GhostException("Missing <GhostDataPair> tag");
-			}
-			else if(gdp.getLength() > 1)
-			{
-				throw new GhostException(String.format("Too many <GhostDataPair>(%s) tags! Use parseGhosts() instead...", gdp.getLength()));
-			}
-			else
+	// Erzeugt für jedes <GhostDataPair> ein Element direkt aus den Attributen.
+	// Alle Elemente eines Aufrufs teilen sich ein (leeres) DOM-Dokument
+	// und (falls shared) einen GhostStore. Groß-/Kleinschreibung des Tags
+	// ist (wie beim früheren GhostsPattern) egal.
+	private static void streamGhosts(XMLStreamReader reader, Consumer<GhostElement> consumer) throws XMLStreamException, GhostException
+	{
+		streamGhosts(reader, consumer, true);
+	}
+
+	private static void streamGhosts(XMLStreamReader reader, Consumer<GhostElement> consumer, boolean shared) throws XMLStreamException, GhostException
+	{
+		Document doc = null;
+		GhostStore store = null;
+
+		try
+		{
+			while(reader.hasNext())
 			{
-				importGhost((Element) gdp.item(0));
+				if(reader.next() != XMLStreamConstants.START_ELEMENT || !reader.getLocalName().equalsIgnoreCase(XML_TAG_GHOST))
+				{
+					continue;
+				}
+
+				if(doc == null)
+				{
+					doc = FNX.getDOMDocument();
+					store = (shared) ? new GhostStore() : null;
+				}
+
+				Element xml = doc.createElement(XML_TAG_GHOST);
+
+				for(int i = 0; i < reader.getAttributeCount(); i++)
+				{
+					String prefix = reader.getAttributePrefix(i);
+					String name = reader.getAttributeLocalName(i);
+
+					if(prefix != null && prefix.length() > 0)
+					{
+						name = String.format("%s:%s", prefix, name);
+					}
+
+					xml.setAttribute(name, reader.getAttributeValue(i));
+				}
+
+				consumer.accept(new GhostElement(xml, store));
 			}
 		}
-		catch(SAXException|ParserConfigurationException|IOException e)
+		catch(ParserConfigurationException e)
 		{
 			e.printStackTrace();
 			throw new GhostException(e.getMessage());
 		}
+		finally
+		{
+			reader.close();
+		}
 	}
 
-	public void importGhost(Element xml) throws GhostException
+	public void importGhost(String xml) throws GhostException
 	{
-		this.XML = xml;
+		ArrayList<GhostElement> Ghosts = new ArrayList<GhostElement>(1);
 
-		if(GhostPattern == null)
+		try
 		{
-			this.GhostPattern = Pattern.compile("\030.\042.(?:\010(?<c>.))?(?:\020(?<g>.))?(?:\030(?<s>.))?\042..+?\\\050.\060.(?:\010(?<b>.{1,5})\\\052)?.*?\062.\012.(?<n>.{1,32})\022\016(?<e>.{1,32})\030(?<v>.)\100.$", Pattern.DOTALL);
+			streamGhosts(getXMLInputFactory().createXMLStreamReader(new StringReader(xml)), Ghosts::add, false);
 		}
+		catch(XMLStreamException e)
+		{
+			e.printStackTrace();
+			throw new GhostException(e.getMessage());
+		}
+
+		if(Ghosts.size() == 0)
+		{
+			throw new GhostException("Missing <GhostDataPair> tag");
+		}
+		else if(Ghosts.size() > 1)
+		{
+			throw new GhostException(String.format("Too many <GhostDataPair>(%s) tags! Use parseGhosts() instead...", Ghosts.size()));
+		}
+		else
+		{
+			// Wurde beim Einlesen bereits geprüft und dekodiert.
+			GhostElement ghost = Ghosts.get(0);
+			this.XML = ghost.XML;
+			this.Hash = ghost.Hash;
+			this.Store = ghost.Store;
+			this.Slot = ghost.Slot;
+		}
+	}
+
+	public void importGhost(Element xml) throws GhostException
+	{
+		this.XML = xml;
+		this.Hash = null;
 
 		try
 		{
 			String weatherString = xml.getAttribute("Weather").toUpperCase();
 			String gameModeString = xml.getAttribute("GameMode").toUpperCase();
 
-			this.Track = xml.getAttribute("Track").toLowerCase();
-			this.Time = FNX.intval(xml.getAttribute("Time"), true);
-			this.DataRaw = xml.getAttribute("Data");
+			String track = xml.getAttribute("Track").toLowerCase();
+			int time = FNX.intval(xml.getAttribute("Time"), true);
+			String dataRaw = xml.getAttribute("Data");
 
-			if(this.Time <= 0 || this.Time > 660000)
+			if(time <= 0 || time > gmHelper.RESULT_MAX)
 			{
 				throw new GhostException("Attribute \"Time\" is missing, empty or invalid value.");
 			}
-			else if(this.DataRaw.length() == 0)
+			else if(dataRaw.length() == 0)
 			{
 				throw new GhostException("Attribute \"Data\" is missing or empty.");
 			}
@@ -182,48 +303,50 @@ public class GhostElement
 			{
 				throw new GhostException("Attribute \"GameMode\" is missing or empty.");
 			}
-			else if(this.Track.length() == 0 || !Arrays.asList(gmHelper.getTracks(true)).contains(this.Track))
+			else if(track.length() == 0 || gmHelper.getTrackIndex(track) < 0)
 			{
 				throw new GhostException("Attribute \"Track\" is missing, empty or value is unknown.");
 			}
 
-			this.Weather = gmHelper.parseWeather(weatherString);
-			this.GameMode = gmHelper.parseGameMode(gameModeString);
-			this.DataBinary = Base64.getDecoder().decode(this.DataRaw);
+			int weather = gmHelper.parseWeather(weatherString);
+			int gameMode = gmHelper.parseGameMode(gameModeString);
 
-			// Normalerweise gehört das mit Google's Protocol Buffers extrahiert.
-			// Ich habe aber keine Lust das zu implementieren, wenn es auch so geht.
-			Matcher m = this.GhostPattern.matcher(new String(this.DataBinary, "ISO-8859-1"));
-
-			if(m.find())
-			{
-				this.Ticket = (m.group("b") != null) ? true : false;
+			// Die Binärdaten werden direkt im Protocol Buffers Format gelesen.
+			// Früher wurde dafür ein (langsamer) regulärer Ausdruck genutzt.
+			// Bereits bekannte Geister kommen direkt aus dem Cache.
+			GhostData data = GhostData.decode(dataRaw);
 
-				this.Nickname = m.group("n");
-				// this.edition = m.group("e");
-				// this.flag = m.group("v");
+			String nickname = data.getNickname();
+			// String edition = data.getEdition();
+			// int flag = data.getFlag();
+			int[] ski = data.getSki();
 
-				this.Ski = new int[]{
-					(m.group("c") != null) ? (int) m.group("c").charAt(0) : 0,
-					(m.group("g") != null) ? (int) m.group("g").charAt(0) : 0,
-					(m.group("s") != null) ? (int) m.group("s").charAt(0) : 0
-				};
-			}
-
-			if(this.Nickname == null || !this.Nickname.matches("^(?i)[A-Z0-9_]{1,20}$"))
+			if(nickname == null || !nickname.matches("^(?i)[A-Z0-9_]{1,20}$"))
 			{
 				throw new GhostException("GhostData: Missing or invalid nickname");
 			}
-			else if(this.Ski == null || this.Ski.length != 3 || (this.Ski[0] + this.Ski[1] + this.Ski[2]) > 100)
+			else if(ski == null || ski.length != 3 || (ski[0] + ski[1] + ski[2]) > 100)
 			{
 				throw new GhostException("GhostData: Missing or invalid ski");
 			}
+
+			if(this.Store == null)
+			{
+				this.Store = new GhostStore_Single();
+			}
+			else if(this.Slot >= 0)
+			{
+				// Erneuter Import: Der alte Slot wird nicht mehr gebraucht.
+				this.Store.remove(this.Slot);
+			}
+
+			this.Slot = this.Store.add(gameMode, gmHelper.getTrackIndex(track), weather, time, ski, data.hasTicket(), nickname);
 		}
 		catch(gmException e)
 		{
 			throw new GhostException(e.getMessage());
 		}
-		catch(IllegalArgumentException|UnsupportedEncodingException e)
+		catch(IllegalArgumentException e)
 		{
 			// z.B. fehlerhafte Base64 Daten
 			throw new GhostException(e.getMessage());
@@ -240,16 +363,34 @@ public class GhostElement
 		return this.XML;
 	}
 
+	// Wird aufgerufen, sobald der Geist aus dem Profil entfernt wurde. Das
+	// Element bleibt benutzbar, die Daten wandern aber in einen eigenen
+	// GhostStore_Single, damit der Slot im Profil neu vergeben werden kann.
+	void release()
+	{
+		if(this.Store == null || this.Slot < 0 || this.Store instanceof GhostStore_Single)
+		{
+			return;
+		}
+
+		GhostStore store = new GhostStore_Single();
+		store.add(this.getGameMode(), this.Store.getTrackIndex(this.Slot), this.getWeather(), this.getTime(), this.getSki(), this.hasTicket(), this.getNickname());
+
+		this.Store.remove(this.Slot);
+		this.Store = store;
+		this.Slot = 0;
+	}
+
 	public int getGameMode()
 	{
-		return this.GameMode;
+		return this.Store.getGameMode(this.Slot);
 	}
 
 	public String getGameModeName()
 	{
 		try
 		{
-			return gmHelper.getGameModeName(this.GameMode);
+			return gmHelper.getGameModeName(this.getGameMode());
 		}
 		catch(gmException e)
 		{
@@ -261,19 +402,19 @@ public class GhostElement
 
 	public String getNickname()
 	{
-		return this.Nickname;
+		return this.Store.getNickname(this.Slot);
 	}
 
 	public String getTrack()
 	{
-		return this.Track;
+		return gmHelper.getConditionTrack(this.getCondition());
 	}
 
 	public String getTrackName()
 	{
 		try
 		{
-			return gmHelper.getTrack(this.Track);
+			return gmHelper.getTrackName(this.Store.getTrackIndex(this.Slot));
 		}
 		catch(gmException e)
 		{
@@ -283,14 +424,14 @@ public class GhostElement
 
 	public int getWeather()
 	{
-		return this.Weather;
+		return this.Store.getWeather(this.Slot);
 	}
 
 	public String getWeatherName()
 	{
 		try
 		{
-			return gmHelper.getWeatherName(this.Weather);
+			return gmHelper.getWeatherName(this.getWeather());
 		}
 		catch(gmException e)
 		{
@@ -302,42 +443,52 @@ public class GhostElement
 
 	public int getTime()
 	{
-		return this.Time;
+		return this.Store.getTime(this.Slot);
 	}
 
 	public String getResult()
 	{
-		return gmHelper.getResult(this.Time);
+		return gmHelper.getResult(this.getTime());
 	}
 
 	public int[] getSki()
 	{
-		return this.Ski;
+		return this.Store.getSki(this.Slot);
 	}
 
 	public boolean hasTicket()
 	{
-		return this.Ticket;
+		return this.Store.hasTicket(this.Slot);
 	}
 
-	public String getConditions()
+	public int getCondition()
 	{
-		try
+		if(this.Store == null || this.Slot < 0)
 		{
-			return String.format("%s.%s.%s", gmHelper.getGameMode(this.GameMode).toUpperCase(), gmHelper.getWeather(this.Weather).toUpperCase(), this.getTrack().toUpperCase());
+			return gmHelper.CONDITION_NONE;
 		}
-		catch(gmException e)
+
+		return this.Store.getCondition(this.Slot);
+	}
+
+	public String getConditions()
+	{
+		int condition = this.getCondition();
+
+		if(condition == gmHelper.CONDITION_NONE)
 		{
-			e.printStackTrace();
 			return "undefined";
 		}
+
+		return gmHelper.getConditionString(condition);
 	}
 
 	public String getHash()
 	{
 		if(this.Hash == null)
 		{
-			this.Hash = String.format("%08x%s", this.DataBinary.length, FNX.sha512(this.DataBinary));
+			byte[] data = Base64.getDecoder().decode(this.XML.getAttribute("Data"));
+			this.Hash = String.format("%08x%s", data.length, FNX.sha512(data));
 		}
 
 		return this.Hash;
@@ -351,10 +502,10 @@ public class GhostElement
 			System.out.printf(" Nick:    %s%n", this.getNickname());
 			System.out.printf(" Time:    %s (%d)%n", this.getResult(), this.getTime());
 			System.out.printf(" Track:   [%s] %s%n", this.getTrack().toUpperCase(), this.getTrackName());
-			System.out.printf(" Weather: [%s] %s (%d)%n", gmHelper.getWeather(this.Weather).toUpperCase(), this.getWeatherName(), this.getWeather());
-			System.out.printf(" Mode:    [%s] %s (%d)%n", gmHelper.getGameMode(this.GameMode).toUpperCase(), this.getGameModeName(), this.getGameMode());
-			System.out.printf(" Ski:     %d-%d-%d%n", this.Ski[0], this.Ski[1], this.Ski[2]);
-			System.out.printf(" Ticket:  %s%n", this.Ticket ? "Yes" : "No");
+			System.out.printf(" Weather: [%s] %s (%d)%n", gmHelper.getWeather(this.getWeather()).toUpperCase(), this.getWeatherName(), this.getWeather());
+			System.out.printf(" Mode:    [%s] %s (%d)%n", gmHelper.getGameMode(this.getGameMode()).toUpperCase(), this.getGameModeName(), this.getGameMode());
+			System.out.printf(" Ski:     %s%n", gmHelper.formatSki(this.getSki(), true));
+			System.out.printf(" Ticket:  %s%n", this.hasTicket() ? "Yes" : "No");
 			System.out.printf(" Hash:    %s%n", this.getHash());
 			// System.out.printf("%n%s%n", DataRaw);
 			System.out.printf("--------------------------------%n");
@@ -371,7 +522,7 @@ public class GhostElement
 	{
 		try
 		{
-			return String.format("%s @ %s (%s/%s) - %s (%d-%d-%d)", this.getNickname(), this.getTrack().toUpperCase(), gmHelper.getGameMode(this.getGameMode()).toUpperCase(), gmHelper.getWeather(this.Weather).toUpperCase(), this.getTime(), this.Ski[0], this.Ski[1], this.Ski[2]);
+			return String.format("%s @ %s (%s/%s) - %s (%d-%d-%d)", this.getNickname(), this.getTrack().toUpperCase(), gmHelper.getGameMode(this.getGameMode()).toUpperCase(), gmHelper.getWeather(this.getWeather()).toUpperCase(), this.getTime(), this.Store.getSki(this.Slot, 0), this.Store.getSki(this.Slot, 1), this.Store.getSki(this.Slot, 2));
 		}
 		catch(gmException e)
 		{
@@ -382,16 +533,63 @@ public class GhostElement
 	}
 
 	public String toString()
+	{
+		return this.toString(new StringBuilder(this.XML.getAttribute("Data").length() + 256)).toString();
+	}
+
+	// Schreibt das Element (inkl. CRLF) direkt in den StringBuilder, ohne
+	// den Umweg über einen Transformer. Die Ausgabe ist identisch mit
+	// FNX.getWinNL(FNX.getStringFromDOM(XML, false)). Namespace-Attribute
+	// kommen, wie beim Transformer, immer zuerst.
+	public StringBuilder toString(StringBuilder xml)
 	{
 		try
 		{
-			return FNX.getWinNL(FNX.getStringFromDOM(this.XML, false));
+			return toString(xml, this.XML);
 		}
-		catch(Exception e)
+		catch(TransformerException e)
 		{
 			e.printStackTrace();
+			return xml;
 		}
+	}
 
-		return null;
+	// Wie toString(StringBuilder), aber für ein beliebiges Element (z.B.
+	// direkt aus dem Dokument, ohne es vorher als Geist zu dekodieren).
+	public static StringBuilder toString(StringBuilder xml, Element element) throws TransformerException
+	{
+		NamedNodeMap attributes = element.getAttributes();
+		boolean direct = !element.hasChildNodes();
+
+		// Sonderfälle (z.B. xmlns="...") überlassen wir dem Transformer.
+		for(int i = 0; direct && i < attributes.getLength(); i++)
+		{
+			String name = attributes.item(i).getNodeName();
+			direct = !name.equals("xmlns") && !(name.startsWith("xmlns:") && attributes.item(i).getNodeValue().isEmpty());
+		}
+
+		if(!direct)
+		{
+			return xml.append(FNX.getWinNL(FNX.getStringFromDOM(element, false)));
+		}
+
+		xml.append('<').append(element.getTagName());
+
+		for(int pass = 0; pass < 2; pass++)
+		{
+			for(int i = 0; i < attributes.getLength(); i++)
+			{
+				Node attribute = attributes.item(i);
+				String name = attribute.getNodeName();
+
+				if((pass == 0) == (name.equals("xmlns") || name.startsWith("xmlns:")))
+				{
+					xml.append(' ').append(name).append("=\"");
+					FNX.escapeXML(xml, attribute.getNodeValue(), true).append('"');
+				}
+			}
+		}
+
+		return xml.append("/>\r\n");
 	}
 }
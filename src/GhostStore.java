@@ -0,0 +1,247 @@
+/**
+ * GhostStore.java: Column based storage for decoded ghost data
+ * Copyright (C) 2018 Christian Schrötter <cs@fnx.li>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301  USA
+ */
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.Arrays;
+
+// Speichert die Daten vieler Geister in einfachen Arrays (je Feld eines),
+// anstatt für jeden Geist mehrere Objekte anzulegen. Die Nicknamen liegen
+// gemeinsam in einem einzigen byte[]. Ein GhostElement ist dann nur noch
+// eine Sicht auf einen Eintrag (Slot) in diesem Speicher.
+//
+// Freigegebene Slots (siehe remove) werden beim nächsten add() wieder
+// verwendet. Belegen gelöschte Nicknamen mehr als die Hälfte des byte[],
+// wird es neu aufgebaut. Einzelne Geister (ohne Profil) nutzen stattdessen
+// GhostStore_Single mit einfachen Feldern.
+public class GhostStore
+{
+	final private static int SKI = 3;
+	final private static int COMPACT_MIN = 4096;
+
+	// Leere Arrays (Länge 0) werden von allen Instanzen geteilt.
+	final private static byte[]    NO_BYTES = new byte[0];
+	final private static int[]     NO_INTS  = new int[0];
+	final private static boolean[] NO_BOOLS = new boolean[0];
+
+	private int       count = 0;
+	private int[]     Free;
+	private int       FreeCount = 0;
+	private int       ArenaGarbage = 0;
+	private byte[]    GameMode;
+	private byte[]    Track;
+	private byte[]    Weather;
+	private int[]     Time;
+	private byte[]    Ski;
+	private boolean[] Ticket;
+	private int[]     NickOffset;
+	private byte[]    NickLength;
+	private byte[]    Arena;
+	private int       ArenaSize = 0;
+
+	public GhostStore()
+	{
+		this(16);
+	}
+
+	// capacity = 0 legt (noch) keine Arrays an.
+	public GhostStore(int capacity)
+	{
+		this.Free = NO_INTS;
+
+		if(capacity <= 0)
+		{
+			this.GameMode   = NO_BYTES;
+			this.Track      = NO_BYTES;
+			this.Weather    = NO_BYTES;
+			this.Time       = NO_INTS;
+			this.Ski        = NO_BYTES;
+			this.Ticket     = NO_BOOLS;
+			this.NickOffset = NO_INTS;
+			this.NickLength = NO_BYTES;
+			this.Arena      = NO_BYTES;
+
+			return;
+		}
+
+		this.GameMode   = new byte[capacity];
+		this.Track      = new byte[capacity];
+		this.Weather    = new byte[capacity];
+		this.Time       = new int[capacity];
+		this.Ski        = new byte[capacity * SKI];
+		this.Ticket     = new boolean[capacity];
+		this.NickOffset = new int[capacity];
+		this.NickLength = new byte[capacity];
+		this.Arena      = new byte[capacity * 8];
+	}
+
+	public int size()
+	{
+		return this.count - this.FreeCount;
+	}
+
+	// Die Werte müssen bereits geprüft sein (siehe GhostElement.importGhost).
+	public int add(int gameMode, int track, int weather, int time, int[] ski, boolean ticket, String nickname)
+	{
+		byte[] nick = nickname.getBytes(StandardCharsets.ISO_8859_1);
+
+		int slot;
+
+		if(this.FreeCount > 0)
+		{
+			slot = this.Free[--this.FreeCount];
+		}
+		else
+		{
+			if(this.count == this.Time.length)
+			{
+				this.grow(Math.max(16, this.count * 2));
+			}
+
+			slot = this.count++;
+		}
+
+		if(this.ArenaSize + nick.length > this.Arena.length)
+		{
+			this.Arena = Arrays.copyOf(this.Arena, Math.max(this.Arena.length * 2, this.ArenaSize + nick.length));
+		}
+
+		this.GameMode[slot] = (byte) gameMode;
+		this.Track[slot] = (byte) track;
+		this.Weather[slot] = (byte) weather;
+		this.Time[slot] = time;
+		this.Ticket[slot] = ticket;
+
+		for(int i = 0; i < SKI; i++)
+		{
+			this.Ski[slot * SKI + i] = (byte) ski[i];
+		}
+
+		System.arraycopy(nick, 0, this.Arena, this.ArenaSize, nick.length);
+		this.NickOffset[slot] = this.ArenaSize;
+		this.NickLength[slot] = (byte) nick.length;
+		this.ArenaSize += nick.length;
+
+		return slot;
+	}
+
+	// Der Slot darf danach nicht mehr verwendet werden (siehe
+	// GhostElement.release), add() vergibt ihn neu.
+	public void remove(int slot)
+	{
+		if(slot < 0 || slot >= this.count || this.NickOffset[slot] < 0)
+		{
+			return;
+		}
+
+		this.ArenaGarbage += this.NickLength[slot];
+		this.NickOffset[slot] = -1;
+		this.NickLength[slot] = 0;
+
+		if(this.FreeCount == this.Free.length)
+		{
+			this.Free = Arrays.copyOf(this.Free, Math.max(16, this.FreeCount * 2));
+		}
+
+		this.Free[this.FreeCount++] = slot;
+
+		if(this.ArenaSize >= COMPACT_MIN && this.ArenaGarbage * 2 > this.ArenaSize)
+		{
+			this.compact();
+		}
+	}
+
+	// Schreibt die Nicknamen aller belegten Slots neu in das byte[].
+	private void compact()
+	{
+		byte[] arena = new byte[Math.max(COMPACT_MIN, (this.ArenaSize - this.ArenaGarbage) * 2)];
+		int size = 0;
+
+		for(int slot = 0; slot < this.count; slot++)
+		{
+			if(this.NickOffset[slot] >= 0)
+			{
+				System.arraycopy(this.Arena, this.NickOffset[slot], arena, size, this.NickLength[slot]);
+				this.NickOffset[slot] = size;
+				size += this.NickLength[slot];
+			}
+		}
+
+		this.Arena = arena;
+		this.ArenaSize = size;
+		this.ArenaGarbage = 0;
+	}
+
+	private void grow(int capacity)
+	{
+		this.GameMode   = Arrays.copyOf(this.GameMode, capacity);
+		this.Track      = Arrays.copyOf(this.Track, capacity);
+		this.Weather    = Arrays.copyOf(this.Weather, capacity);
+		this.Time       = Arrays.copyOf(this.Time, capacity);
+		this.Ski        = Arrays.copyOf(this.Ski, capacity * SKI);
+		this.Ticket     = Arrays.copyOf(this.Ticket, capacity);
+		this.NickOffset = Arrays.copyOf(this.NickOffset, capacity);
+		this.NickLength = Arrays.copyOf(this.NickLength, capacity);
+	}
+
+	public int getGameMode(int slot)
+	{
+		return this.GameMode[slot];
+	}
+
+	public int getTrackIndex(int slot)
+	{
+		return this.Track[slot];
+	}
+
+	public int getWeather(int slot)
+	{
+		return this.Weather[slot];
+	}
+
+	public int getCondition(int slot)
+	{
+		return gmHelper.getCondition(this.GameMode[slot], this.Track[slot], this.Weather[slot]);
+	}
+
+	public int getTime(int slot)
+	{
+		return this.Time[slot];
+	}
+
+	public int getSki(int slot, int index)
+	{
+		return this.Ski[slot * SKI + index];
+	}
+
+	public int[] getSki(int slot)
+	{
+		return new int[]{this.getSki(slot, 0), this.getSki(slot, 1), this.getSki(slot, 2)};
+	}
+
+	public boolean hasTicket(int slot)
+	{
+		return this.Ticket[slot];
+	}
+
+	public String getNickname(int slot)
+	{
+		return new String(this.Arena, this.NickOffset[slot], this.NickLength[slot], StandardCharsets.ISO_8859_1);
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * GhostStore_Single.java: Storage for a single ghost without profile
+ * Copyright (C) 2018 Christian Schrötter <cs@fnx.li>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301  USA
+ */
+
+// Für einzelne Geister (ohne Profil) lohnen sich eigene Arrays nicht.
+// Es gibt nur Slot 0, ein weiteres add() überschreibt ihn.
+class GhostStore_Single extends GhostStore
+{
+	private byte    GameMode;
+	private byte    Track;
+	private byte    Weather;
+	private int     Time;
+	private byte[]  Ski;
+	private boolean Ticket;
+	private String  Nickname;
+
+	GhostStore_Single()
+	{
+		super(0);
+	}
+
+	@Override
+	public int size()
+	{
+		return (this.Nickname != null) ? 1 : 0;
+	}
+
+	@Override
+	public int add(int gameMode, int track, int weather, int time, int[] ski, boolean ticket, String nickname)
+	{
+		this.GameMode = (byte) gameMode;
+		this.Track = (byte) track;
+		this.Weather = (byte) weather;
+		this.Time = time;
+		this.Ski = new byte[]{(byte) ski[0], (byte) ski[1], (byte) ski[2]};
+		this.Ticket = ticket;
+		this.Nickname = nickname;
+
+		return 0;
+	}
+
+	@Override
+	public void remove(int slot)
+	{
+
+	}
+
+	@Override
+	public int getGameMode(int slot)
+	{
+		return this.GameMode;
+	}
+
+	@Override
+	public int getTrackIndex(int slot)
+	{
+		return this.Track;
+	}
+
+	@Override
+	public int getWeather(int slot)
+	{
+		return this.Weather;
+	}
+
+	@Override
+	public int getCondition(int slot)
+	{
+		return gmHelper.getCondition(this.GameMode, this.Track, this.Weather);
+	}
+
+	@Override
+	public int getTime(int slot)
+	{
+		return this.Time;
+	}
+
+	@Override
+	public int getSki(int slot, int index)
+	{
+		return this.Ski[index];
+	}
+
+	@Override
+	public boolean hasTicket(int slot)
+	{
+		return this.Ticket;
+	}
+
+	@Override
+	public String getNickname(int slot)
+	{
+		return this.Nickname;
+	}
+}
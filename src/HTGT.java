@@ -23,7 +23,6 @@ import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.io.InputStream;
 import java.io.Reader;
 
@@ -40,21 +39,30 @@ import java.lang.IndexOutOfBoundsException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.Set;
 
 import java.util.prefs.Preferences;
 
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import java.util.stream.Collectors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.ComponentOrientation;
@@ -62,6 +70,7 @@ import java.awt.Desktop;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.GridLayout;
+import java.awt.SecondaryLoop;
 import java.awt.Toolkit;
 
 import java.awt.datatransfer.Clipboard;
@@ -89,10 +98,13 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
+import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.KeyStroke;
 import javax.swing.ListSelectionModel;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.UIManager;
 
 import javax.swing.event.ListSelectionEvent;
@@ -134,6 +146,8 @@ public class HTGT
 	final private static int       FONTSIZE            = 13;
 	final private static double    FONTSMALL           = 0.75;
 	final private static int       HISTORY_SIZE        = 10;
+	final private static int       API_WAIT            = 250;
+	final private static int       PREFETCH_SIZE       = 4;
 
 	final public static int        NONE  = 0;
 	final public static int        CTRL  = Toolkit.getDefaultToolkit().getMenuShortcutKeyMask();
@@ -170,12 +184,14 @@ public class HTGT
 	final private static String CFG_MODE        = "last-gamemode";
 	final private static String CFG_WEATHER     = "last-weather";
 	final private static String CFG_TRACK       = "last-track";
+	final private static String CFG_RECENT      = "recent-conditions";
 	final private static String CFG_NDG         = "never-download";
 	final private static String CFG_ARG         = "always-replace";
 	final private static String CFG_AAR         = "always-apply";
 	final private static String CFG_WC          = "weather-check";
 	final private static String CFG_TRACKS      = "track-order";
 	final private static String CFG_RACE        = "race.%s.%s";
+	final private static String CFG_DIGEST      = "digest-cache"; // Unterknoten!
 
 	final private static int PROFILE_NONE    =  0;
 	final private static int PROFILE_DEFAULT = -1;
@@ -224,6 +240,7 @@ public class HTGT
 	private static OfflineProfiles            OfflineProfiles;
 
 	private static volatile boolean           ffState;
+	private static volatile boolean           pfState;
 	private static volatile JDialog           ffDialog;
 	private static volatile boolean           ffChanged;
 
@@ -433,6 +450,12 @@ public class HTGT
 			eSportsAPI.setHost(apihost);
 		}
 
+		if(debugMode)
+		{
+			// Messwerte der API-Anfragen beim Beenden ausgeben.
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> dbg(getAPIMetrics())));
+		}
+
 		// Wird u.a. für das Kontextmenü bei Eingaben benötigt.
 		UIManager.addAuxiliaryLookAndFeel(new FNX_LookAndFeel());
 
@@ -680,6 +703,12 @@ public class HTGT
 				menu.add(registerDynMenuItem(MENU_DEFAULT,  langKey + ".applyDefaultPath",          "applyDefaultFile",       KeyStroke.getKeyStroke(KeyEvent.VK_A,      SHIFT)));
 				menu.addSeparator(); // ----------------------------------------------------------------------------------------------------------------------------------------------------------------
 				menu.add(registerDynMenuItem(MENU_STATIC,   langKey + ".reset",                     "clearConfigDialog",      KeyStroke.getKeyStroke(KeyEvent.VK_R,      CTRL)));
+
+				if(debugMode)
+				{
+					menu.addSeparator(); // ------------------------------------------------------------------------------------------------------------------------------------------------------------
+					menu.add(registerDynMenuItem(MENU_STATIC, langKey + ".apiMetrics",                "apiMetrics"));
+				}
 				break;
 
 			default:
@@ -1018,35 +1047,63 @@ public class HTGT
 				}
 			}
 
-			for(int i = 0; i < ghosts.length; i++)
+			// Alle Geister auf einmal hinzufügen und danach pro Bedingung alle
+			// außer dem zuletzt importierten löschen. Das Ergebnis ist gleich
+			// wie früher Geist für Geist, der Index wird aber nur einmal neu
+			// aufgebaut und die Tabelle nur einmal befüllt.
+			try
 			{
-				addGhost(ghosts[i], true);
-				ghosts[i].printDetails();
+				OfflineProfiles.addGhosts(ghosts);
 
 				if(deleteDuplicates)
 				{
-					int[] ghostDel = OfflineProfiles.getGhostsByCondition(ghosts[i]);
-					for(int h = ghostDel.length - 2; h > -1; h--)
+					Set<Integer> ghostDel = new HashSet<Integer>();
+
+					for(int i = 0; i < ghosts.length; i++)
 					{
-						deleteGhost(ghostDel[h]);
+						int[] duplicates = OfflineProfiles.getGhostsByCondition(ghosts[i]);
+
+						for(int h = 0; h < duplicates.length - 1; h++)
+						{
+							ghostDel.add(duplicates[h]);
+						}
 					}
+
+					OfflineProfiles.deleteGhosts(ghostDel.stream().mapToInt(i -> i).toArray());
 				}
 			}
+			catch(Exception e)
+			{
+				exceptionHandler(e);
+				syncGUI();
+
+				return -1;
+			}
+
+			for(int i = 0; i < ghosts.length; i++)
+			{
+				ghosts[i].printDetails();
+			}
 
 			if(!deleteDuplicates)
 			{
+				for(int i = 0; i < ghosts.length; i++)
+				{
+					addGhost(ghosts[i], false);
+				}
+
+				updateWindowTitle();
 				highlightLastRows(ghosts.length);
 			}
 			else
 			{
+				syncGUI();
+
 				for(int i = 0; i < ghosts.length; i++)
 				{
-					for(int h = 0; h < OfflineProfiles.getGhostCount(); h++)
+					for(int h : OfflineProfiles.getGhostsByCondition(ghosts[i]))
 					{
-						if(OfflineProfiles.getGhost(h).getConditions().equals(ghosts[i].getConditions()))
-						{
-							selection.add(h);
-						}
+						selection.add(h);
 					}
 				}
 
@@ -1127,6 +1184,7 @@ public class HTGT
 		if(OfflineProfiles.getProfileCount() > 0)
 		{
 			OfflineProfiles.selectProfile(index);
+			dbg(GhostData.getCacheInfo());
 			nickname = OfflineProfiles.getProfiles()[index];
 			int lastProfile = PROFILE_NONE;
 
@@ -1262,6 +1320,20 @@ public class HTGT
 		}
 	}
 
+	public static void deleteGhosts(int[] indices)
+	{
+		try
+		{
+			OfflineProfiles.deleteGhosts(indices);
+		}
+		catch(Exception e)
+		{
+			exceptionHandler(e);
+		}
+
+		syncGUI();
+	}
+
 	private static boolean confirmGhostReplacement()
 	{
 		return confirmGhostReplacement(null);
@@ -1998,15 +2070,12 @@ public class HTGT
 	{
 		if(OfflineProfiles != null)
 		{
+			ArrayList<GhostElement> sorted = new ArrayList<GhostElement>(OfflineProfiles.getGhostCount());
+
 			if(isSpecialProfile())
 			{
 				ArrayList<GhostElement>[][][] ghosts = OfflineProfiles.getGhostList();
 
-				for(int i = (OfflineProfiles.getGhostCount() - 1); i > -1; i--)
-				{
-					deleteGhost(i);
-				}
-
 				for(int m = 0; m < ghosts.length; m++)
 				{
 					for(int t = 0; t < ghosts[m].length; t++)
@@ -2016,11 +2085,7 @@ public class HTGT
 							if(ghosts[m][t][w] != null)
 							{
 								ghosts[m][t][w].sort(Comparator.comparing(GhostElement::getTime));
-
-								for(int i = 0; i < ghosts[m][t][w].size(); i++)
-								{
-									addGhost(ghosts[m][t][w].get(i), true);
-								}
+								sorted.addAll(ghosts[m][t][w]);
 							}
 						}
 					}
@@ -2042,11 +2107,6 @@ public class HTGT
 					}
 				}
 
-				for(int i = (OfflineProfiles.getGhostCount() - 1); i > -1; i--)
-				{
-					deleteGhost(i);
-				}
-
 				for(int m = 0; m < ghosts.length; m++)
 				{
 					for(int t = 0; t < ghosts[m].length; t++)
@@ -2055,13 +2115,23 @@ public class HTGT
 						{
 							if(ghosts[m][t][w] != null)
 							{
-								addGhost(ghosts[m][t][w], true);
+								sorted.add(ghosts[m][t][w]);
 							}
 						}
 					}
 				}
 			}
 
+			try
+			{
+				OfflineProfiles.replaceGhosts(sorted.toArray(new GhostElement[sorted.size()]));
+			}
+			catch(Exception e)
+			{
+				exceptionHandler(e);
+			}
+
+			syncGUI();
 			autoSave();
 		}
 	}
@@ -2111,8 +2181,9 @@ public class HTGT
 			try
 			{
 				// TODO: Check for NULL?
-				String hash = FNX.sha512(dll);
-				dbgf("SHA512: %s", hash);
+				long start = System.nanoTime();
+				String hash = FNX.sha512(dll, cfg.node(CFG_DIGEST));
+				dbgf("SHA512: %s (%d ms)", hash, (System.nanoTime() - start) / 1000000L);
 
 				if(anonAPI.updateAvailable("SC.DLL", hash, auto))
 				{
@@ -2641,6 +2712,7 @@ public class HTGT
 	{
 		updateDefaultLocale();
 		lang = FNX.getLangBundle("HTGT");
+		gmHelper.setupLocale();
 	}
 
 	private static String[] splitLocaleString(String locale)
@@ -2692,29 +2764,19 @@ public class HTGT
 			return;
 		}
 
-		for(int i = selection.length - 1; i > -1; i--)
+		if(copy)
 		{
-			int row = selection[i];
-
-			if(copy)
-			{
-				data.insert(0, OfflineProfiles.getGhost(row).toString());
-			}
-
-			if(delete)
+			for(int i = 0; i < selection.length; i++)
 			{
-				deleteGhost(row);
+				OfflineProfiles.getGhost(selection[i]).toString(data);
 			}
-		}
 
-		if(copy)
-		{
 			Toolkit.getDefaultToolkit().getSystemClipboard().setContents(new StringSelection(data.toString()), null);
 		}
 
 		if(delete)
 		{
-			updateWindowTitle();
+			deleteGhosts(selection);
 			autoSave();
 		}
 	}
@@ -3094,8 +3156,12 @@ public class HTGT
 
 		try
 		{
-			ghostIDs = api.getGhostIDs(ghosts);
-			if(ghostIDs.length != ghosts.length)
+			ghostIDs = awaitAPI(api.getGhostIDsAsync(ghosts));
+			if(ghostIDs == null)
+			{
+				return false;
+			}
+			else if(ghostIDs.length != ghosts.length)
 			{
 				dbgf("ghosts(%d) != selection(%d)", ghostIDs.length, ghosts.length);
 				exceptionHandler(new eSportsAPIException("SERVER_DUMB"));
@@ -3108,6 +3174,8 @@ public class HTGT
 			return false;
 		}
 
+		List<Integer> apply = new ArrayList<Integer>(ghostIDs.length);
+
 		for(int i = 0; i < ghostIDs.length; i++)
 		{
 			GhostElement ghost = ghosts[i];
@@ -3135,29 +3203,103 @@ public class HTGT
 
 				if(action == BUTTON_YES)
 				{
-					try
-					{
-						if(api.applyResultByGhostID(ghostIDs[i]))
-						{
-							dbgf("Successfully applied result from ghost with ID %d.", ghostIDs[i]);
+					apply.add(ghostIDs[i]);
+				}
+			}
+		}
 
-							if(!silent)
-							{
-								infoDialog(APPLICATION_API, FNX.formatLangString(lang, "ghostApplySuccess", ghostIDs[i]));
-							}
-						}
-						else
-						{
-							throw new eSportsAPIException();
-						}
-					}
-					catch(eSportsAPIException e)
+		// Erst alle Fragen, dann werden die Ergebnisse gemeinsam (parallel)
+		// eingetragen. Das dauert dann kaum länger als ein einzelnes.
+		if(apply.size() > 0)
+		{
+			Map<Integer,eSportsAPIException> results;
+
+			try
+			{
+				results = awaitAPI(api.applyResultsByGhostIDsAsync(apply.stream().mapToInt(Integer::intValue).toArray()));
+			}
+			catch(eSportsAPIException e)
+			{
+				APIError(e);
+				return false;
+			}
+
+			if(results == null)
+			{
+				return false;
+			}
+
+			List<Integer> applied = new ArrayList<Integer>(results.size());
+			Map<Integer,eSportsAPIException> failed = new LinkedHashMap<Integer,eSportsAPIException>();
+
+			for(Map.Entry<Integer,eSportsAPIException> result : results.entrySet())
+			{
+				if(result.getValue() == null)
+				{
+					dbgf("Successfully applied result from ghost with ID %d.", result.getKey());
+					applied.add(result.getKey());
+				}
+				else
+				{
+					error = true;
+					dbgf("Failed to apply ghost with ID %d.", result.getKey());
+					failed.put(result.getKey(), result.getValue());
+				}
+			}
+
+			// Erfolge und Fehler landen gemeinsam in einer einzigen Meldung.
+			List<String> msg = new ArrayList<String>(2);
+
+			if(!silent && applied.size() == 1)
+			{
+				msg.add(FNX.formatLangString(lang, "ghostApplySuccess", applied.get(0)));
+			}
+			else if(!silent && applied.size() > 1)
+			{
+				msg.add(FNX.formatLangString(lang, "ghostApplySuccessMultiple", applied.size(), applied.stream().map(String::valueOf).collect(Collectors.joining(", "))));
+			}
+
+			if(failed.size() == 1)
+			{
+				Map.Entry<Integer,eSportsAPIException> result = failed.entrySet().iterator().next();
+				eSportsAPIException e = result.getValue();
+				e.printStackTrace();
+
+				msg.add(FNX.formatLangString(lang, "APIErrorDetails", FNX.formatLangString(lang, "ghostApplyFailed", result.getKey()), e.getErrorCode(), e.getErrorMessage()).trim());
+			}
+			else if(failed.size() > 1)
+			{
+				StringBuilder details = new StringBuilder();
+
+				for(Map.Entry<Integer,eSportsAPIException> result : failed.entrySet())
+				{
+					eSportsAPIException e = result.getValue();
+					e.printStackTrace();
+
+					details.append(String.format("%n%d: %s", result.getKey(), e.getErrorCode()));
+
+					if(e.getErrorMessage() != null && e.getErrorMessage().length() > 0)
 					{
-						error = true;
-						dbgf("Failed to apply ghost with ID %d.", ghostIDs[i]);
-						APIError(e, FNX.formatLangString(lang, "ghostApplyFailed", ghostIDs[i]));
+						details.append(String.format(" (%s)", e.getErrorMessage()));
 					}
 				}
+
+				msg.add(FNX.formatLangString(lang, "ghostApplyFailedMultiple", failed.size(), details.toString()));
+			}
+
+			if(failed.values().stream().anyMatch(e -> e.getErrorCode().equals("TOKEN_INVALID")))
+			{
+				dbg("API token invalid: Removed from prefs!");
+				updateToken(null);
+			}
+
+			if(failed.size() > 0)
+			{
+				errorMessage(APPLICATION_API, String.join(String.format("%n%n"), msg));
+			}
+			else if(msg.size() > 0)
+			{
+				infoDialog(APPLICATION_API, msg.get(0));
 			}
 		}
 
@@ -3250,13 +3392,19 @@ public class HTGT
 				else if(ids.length == 1)
 				{
 					dbg("ids.length = 1");
-					ghostdata = new GhostElement[1];
-					ghostdata[0] = api.getGhostByID(ids[0]);
+					GhostElement ghost = awaitAPI(api.getGhostByIDAsync(ids[0]));
+					ghostdata = (ghost != null) ? new GhostElement[]{ghost} : null;
 				}
 				else
 				{
 					dbg("ids.length > 1");
-					ghostdata = api.getGhostsByIDs(ids);
+					ghostdata = awaitAPI(api.getGhostsByIDsAsync(ids));
+				}
+
+				if(ghostdata == null)
+				{
+					dbg("Download canceled.");
+					return false;
 				}
 
 				int imported = ghostImport(ghostdata, force);
@@ -3297,6 +3445,10 @@ public class HTGT
 		Boolean result;
 		String selection;
 
+		// Die Auswahl von Modus und Strecke passiert offline,
+		// in der Zwischenzeit werden die Ranglisten geladen.
+		prefetch();
+
 		int[] modes = gmHelper.getGameModeIDs();
 		String[] values = new String[modes.length];
 		String lastMode = cfg(CFG_MODE);
@@ -3499,6 +3651,7 @@ public class HTGT
 				{
 					lastTrack = cfg(CFG_TRACK, conditions[input][1]);
 					lastWeather = cfg(CFG_WEATHER, conditions[input][2]);
+					countCondition(mode, lastTrack, lastWeather);
 
 					result = ghostSelect(mode, lastTrack, Integer.parseInt(lastWeather), false, ENABLE_RACE);
 
@@ -3561,7 +3714,12 @@ public class HTGT
 
 			if(OfflineProfiles != null && prepareAPI())
 			{
-				results = api.getResultsByCondition(mode, track, weather, forceWeather);
+				results = awaitAPI(api.getResultsByConditionAsync(mode, track, weather, forceWeather));
+
+				if(results == null)
+				{
+					return null;
+				}
 
 				if(results.size() > 0)
 				{
@@ -3616,26 +3774,137 @@ public class HTGT
 		return false;
 	}
 
-	// Details des Tokens anzeigen.
-	public static void playerInfo()
+	// Nur im Debugmodus: Laufzeiten, Bytes und Fehler der API-Anfragen.
+	public static void apiMetrics()
 	{
-		try
+		String info = getAPIMetrics();
+		dbg(info);
+
+		JTextArea text = new JTextArea(info);
+		text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, FONTSIZE));
+		text.setEditable(false);
+
+		JScrollPane scroll = new JScrollPane(text);
+		scroll.setPreferredSize(new Dimension(800, 400));
+
+		FNX.windowToFront(mainWindow);
+		JOptionPane.showMessageDialog(mainWindow, scroll, APPLICATION_API, JOptionPane.PLAIN_MESSAGE);
+	}
+
+	private static String getAPIMetrics()
+	{
+		eSportsAPIMetrics metrics = eSportsAPI.getMetrics();
+		return (metrics != null) ? metrics.getInfo() : "API metrics: disabled";
+	}
+
+	// Wartet auf einen asynchronen API-Aufruf, ohne den EDT zu blockieren:
+	// Über eine SecondaryLoop werden weiterhin Ereignisse verarbeitet, das
+	// Hauptfenster nimmt aber keine Eingaben an. Dauert es länger als
+	// API_WAIT ms, erscheint (wie beim Fast-Follow-Modus) ein modaler
+	// Dialog zum Abbrechen. Gibt null zurück, falls abgebrochen wurde.
+	private static <T> T awaitAPI(CompletableFuture<T> future) throws eSportsAPIException
+	{
+		if(!future.isDone() && SwingUtilities.isEventDispatchThread() && mainWindow != null)
 		{
-			if(prepareAPI())
+			SecondaryLoop loop = Toolkit.getDefaultToolkit().getSystemEventQueue().createSecondaryLoop();
+			JOptionPane msg = new JOptionPane(FNX.getLangString(lang, "APIWait"), JOptionPane.PLAIN_MESSAGE);
+			msg.setOptions(new String[]{FNX.getLangString(lang, "cancel")});
+			JDialog dialog = msg.createDialog(mainWindow, APPLICATION_API);
+
+			Timer timer = new Timer(API_WAIT, e ->
 			{
-				Map<String,Object> data = api.getPlayerInfo();
-				data.forEach((k,v) -> dbgf("playerDetails.%s: %s", k, v));
+				if(!future.isDone())
+				{
+					mainWindow.setEnabled(true);
+					dialog.setVisible(true);
 
-				messageDialog(APPLICATION_API, FNX.formatLangString(lang, "playerInfo", data.get("Useraccount"), data.get("Nickname"), data.get("CompetitionName")));
+					// Dialog geschlossen, aber noch keine Antwort?
+					if(!future.isDone())
+					{
+						dbg("API call canceled by user.");
+						future.cancel(true);
+					}
+				}
+			});
+
+			future.whenComplete((r, t) -> SwingUtilities.invokeLater(() ->
+			{
+				timer.stop();
+				dialog.setVisible(false);
+				dialog.dispose();
+				loop.exit();
+			}));
+
+			mainWindow.setEnabled(false);
+			timer.setRepeats(false);
+			timer.start();
+
+			try
+			{
+				loop.enter();
+			}
+			finally
+			{
+				mainWindow.setEnabled(true);
+				mainWindow.toFront();
 			}
 		}
-		catch(eSportsAPIException e)
+
+		try
 		{
-			APIError(e);
+			return future.join();
+		}
+		catch(CancellationException e)
+		{
+			return null;
+		}
+		catch(CompletionException e)
+		{
+			eSportsAPIException ex = eSportsAPI.getException(e);
+
+			if(ex == null)
+			{
+				return null;
+			}
+
+			throw ex;
+		}
+	}
+
+	// Details des Tokens anzeigen.
+	// Die Anfrage läuft im Hintergrund, das Fenster bleibt bedienbar.
+	public static void playerInfo()
+	{
+		if(prepareAPI())
+		{
+			api.getPlayerInfoAsync().whenComplete((data, t) ->
+			{
+				if(t != null)
+				{
+					eSportsAPIException e = eSportsAPI.getException(t);
+
+					if(e != null)
+					{
+						APIError(e);
+					}
+
+					return;
+				}
+
+				data.forEach((k,v) -> dbgf("playerDetails.%s: %s", k, v));
+				messageDialog(APPLICATION_API, FNX.formatLangString(lang, "playerInfo", data.get("Useraccount"), data.get("Nickname"), data.get("CompetitionName")));
+			});
 		}
 	}
 
 	public static boolean updateRaceWeather()
+	{
+		return updateRaceWeather(null);
+	}
+
+	// Mit eigener API-Instanz für den Hintergrund: Es wird weder nach
+	// einem Token gefragt, noch werden Fehlermeldungen angezeigt.
+	private static boolean updateRaceWeather(eSportsAPI background)
 	{
 		Date date = new Date();
 		long lastWeatherCheck = cfg.getLong(CFG_WC, 0L);
@@ -3659,13 +3928,20 @@ public class HTGT
 
 		if(lastWeatherCheck < checkInterval)
 		{
-			if(prepareAPI())
+			eSportsAPI a = (background != null) ? background : (prepareAPI() ? api : null);
+
+			if(a != null)
 			{
 				try
 				{
 					int[] modes = gmHelper.getGameModeIDs();
 					String[] tracks = gmHelper.getTracks(true);
-					int[][][] test = api.getRaceWeather();
+					int[][][] test = (background != null) ? a.getRaceWeather() : awaitAPI(a.getRaceWeatherAsync());
+
+					if(test == null)
+					{
+						return false;
+					}
 
 					for(int i = 0; i < test.length; i++)
 					{
@@ -3680,14 +3956,21 @@ public class HTGT
 					}
 
 					// Streckenreihenfolge für später abspeichern...
-					cfg(CFG_TRACKS, String.join(",", api.getServerTracks()));
+					cfg(CFG_TRACKS, String.join(",", a.getServerTracks()));
 
 					cfg.putLong(CFG_WC, date.getTime());
 					return true;
 				}
 				catch(eSportsAPIException e)
 				{
-					APIError(e);
+					if(background != null)
+					{
+						dbgf("Race weather update failed: %s", e.getErrorCode());
+					}
+					else
+					{
+						APIError(e);
+					}
 				}
 				catch(gmException e)
 				{
@@ -3701,6 +3984,155 @@ public class HTGT
 		return true;
 	}
 
+	// Ranglisten der zuletzt und am häufigsten gewählten Strecken im
+	// Hintergrund laden. Die Antworten landen im Cache von eSportsAPI,
+	// die Auswahl im Downloaddialog erscheint dann ohne Wartezeit.
+	private static void prefetch()
+	{
+		if(OfflineProfiles == null || cfg(CFG_TOKEN) == null || pfState)
+		{
+			return;
+		}
+
+		pfState = true;
+		new Thread(new HTGT_Background(HTGT_Background.EXEC_PREFETCH)).start();
+	}
+
+	protected static void prefetchWorker()
+	{
+		try
+		{
+			String token = cfg(CFG_TOKEN);
+			List<String> conditions = getPrefetchConditions();
+
+			if(token == null || conditions.size() == 0)
+			{
+				return;
+			}
+
+			// Eigene Instanz, damit z.B. getNextResultIndex() von "api" nicht
+			// verändert wird. Gleichzeitige Anfragen werden von eSportsAPI
+			// zusammengefasst, der Dialog wartet dann auf diese Antwort.
+			eSportsAPI background = new eSportsAPI(token, getIdent());
+
+			if(!updateRaceWeather(background))
+			{
+				return;
+			}
+
+			for(String condition : conditions)
+			{
+				String[] c = condition.split(":");
+				dbgf("Prefetching results: %s", condition);
+
+				try
+				{
+					background.getResultsByCondition(Integer.parseInt(c[0]), c[1], Integer.parseInt(c[2]), ENABLE_RACE);
+				}
+				catch(ArrayIndexOutOfBoundsException|NumberFormatException e)
+				{
+					// Kaputte Konfiguration (CFG_MODE usw.), einfach überspringen.
+					dbgf("Invalid condition: %s", condition);
+				}
+				catch(eSportsAPIException e)
+				{
+					dbgf("Prefetch failed: %s", e.getErrorCode());
+
+					if("INTERNAL_NETWORK_ERROR".equals(e.getErrorCode()))
+					{
+						return;
+					}
+				}
+			}
+		}
+		finally
+		{
+			pfState = false;
+		}
+	}
+
+	// Zuerst die zuletzt gewählte Rangliste, danach die am häufigsten
+	// gewählten. Format: "mode:track:weather" (wie in CFG_RECENT).
+	private static List<String> getPrefetchConditions()
+	{
+		List<String> conditions = new ArrayList<String>(PREFETCH_SIZE);
+		String lastMode = cfg(CFG_MODE);
+		String lastTrack = cfg(CFG_TRACK);
+		String lastWeather = cfg(CFG_WEATHER);
+
+		if(lastMode != null && lastTrack != null && lastWeather != null)
+		{
+			conditions.add(String.format("%s:%s:%s", lastMode, lastTrack.toLowerCase(), lastWeather));
+		}
+
+		for(String condition : getRecentConditions().keySet())
+		{
+			if(conditions.size() >= PREFETCH_SIZE)
+			{
+				break;
+			}
+			else if(!conditions.contains(condition))
+			{
+				conditions.add(condition);
+			}
+		}
+
+		return conditions;
+	}
+
+	// Zählt, wie oft eine Rangliste ausgewählt wurde. Es werden maximal
+	// HISTORY_SIZE Einträge gespeichert, die aktuelle bleibt immer erhalten.
+	private static void countCondition(int mode, String track, String weather)
+	{
+		String condition = String.format("%d:%s:%s", mode, track.toLowerCase(), weather);
+		Map<String,Integer> recent = getRecentConditions();
+		int count = recent.getOrDefault(condition, 0) + 1;
+		recent.remove(condition);
+
+		List<String> values = new ArrayList<String>(HISTORY_SIZE);
+		values.add(condition + "=" + count);
+
+		for(Map.Entry<String,Integer> entry : recent.entrySet())
+		{
+			if(values.size() >= HISTORY_SIZE)
+			{
+				break;
+			}
+
+			values.add(entry.getKey() + "=" + entry.getValue());
+		}
+
+		cfg(CFG_RECENT, String.join(",", values));
+	}
+
+	// Gespeicherte Ranglisten, absteigend nach Anzahl sortiert.
+	private static Map<String,Integer> getRecentConditions()
+	{
+		List<Map.Entry<String,Integer>> entries = new ArrayList<Map.Entry<String,Integer>>();
+		Map<String,Integer> recent = new LinkedHashMap<String,Integer>();
+		String value = cfg(CFG_RECENT);
+
+		if(value != null)
+		{
+			Pattern p = Pattern.compile("^([0-9]+:[a-z]+:-?[0-9]+)=([0-9]{1,9})$");
+
+			for(String entry : value.split(","))
+			{
+				Matcher m = p.matcher(entry);
+
+				if(m.find())
+				{
+					entries.add(new AbstractMap.SimpleEntry<String,Integer>(m.group(1), Integer.parseInt(m.group(2))));
+				}
+			}
+		}
+
+		entries.sort(Map.Entry.<String,Integer>comparingByValue().reversed());
+		entries.forEach(e -> recent.putIfAbsent(e.getKey(), e.getValue()));
+
+		return recent;
+	}
+
 	public static boolean isSpecialProfile()
 	{
 		return isSpecialProfile(null);
@@ -3776,6 +4208,7 @@ public class HTGT
 			enableMenuItems();
 
 			dbg("Successfully loaded XML file! Let's rumble...");
+			prefetch();
 		}
 		catch(FileNotFoundException e)
 		{
@@ -3999,9 +4432,7 @@ public class HTGT
 	{
 		try
 		{
-			PrintWriter tmp = new PrintWriter(file);
-			tmp.printf("%s", xml);
-			tmp.close();
+			writeFile(file, xml);
 
 			return true;
 		}
@@ -4013,6 +4444,17 @@ public class HTGT
 		return false;
 	}
 
+	// Schreibt die Datei atomar (siehe FNX.writeFile) und
+	// gibt im Debug-Modus Dauer und Durchsatz aus.
+	private static void writeFile(File dst, String content) throws IOException
+	{
+		long start = System.nanoTime();
+		long bytes = FNX.writeFile(dst, content);
+		double ms = (System.nanoTime() - start) / 1000000.0;
+
+		dbgf("Saved %d bytes to %s in %.1f ms (%.1f MB/s)", bytes, dst.getName(), ms, (ms > 0) ? (bytes / 1048576.0) / (ms / 1000.0) : 0.0);
+	}
+
 	// "Speichern unter" Dialog.
 	public static void saveFileAs()
 	{
@@ -4147,8 +4589,7 @@ public class HTGT
 				data.insert(0, "<?xml version=\"1.0\" encoding=\"utf-8\"?>\r\n<GhostList>\r\n\r\n");
 				data.append(String.format("</GhostList>\r\n<!-- %s -->\r\n", FNX.getDateString()));
 
-				PrintWriter pw = new PrintWriter(selectedFile);
-				pw.printf("%s", data.toString()); pw.close();
+				writeFile(selectedFile, data.toString());
 
 				dbg("Export to file successfully!");
 				infoDialog(FNX.formatLangString(lang, "exportToFileSuccess", selectedFile));
@@ -4501,40 +4942,19 @@ public class HTGT
 
 				for(int i = 0; i < selection.length; i++)
 				{
-					int m = -1;
-					int t = -1;
-					int w = -1;
-
 					ghosts[i] = OfflineProfiles.getGhost(selection[i]);
+					int condition = ghosts[i].getCondition();
 
-					for(int h = 0; h < modes.length; h++)
-					{
-						if(modes[h] == ghosts[i].getGameMode())
-						{
-							m = h;
-							break;
-						}
-					}
-
-					for(int h = 0; h < tracks.length; h++)
+					if(condition == gmHelper.CONDITION_NONE)
 					{
-						if(tracks[h].equals(ghosts[i].getTrack()))
-						{
-							t = h;
-							break;
-						}
+						throw new Exception();
 					}
 
-					for(int h = 0; h < weathers.length; h++)
-					{
-						if(weathers[h] == ghosts[i].getWeather())
-						{
-							w = h;
-							break;
-						}
-					}
+					int m = gmHelper.getConditionGameMode(condition);
+					int t = gmHelper.getConditionTrackIndex(condition);
+					int w = gmHelper.getConditionWeatherIndex(condition);
 
-					if(m < 0 || t < 0 || w < 0)
+					if(m >= modes.length || w >= weathers.length)
 					{
 						throw new Exception();
 					}
@@ -4793,6 +5213,7 @@ class HTGT_Background implements Runnable
 	public static final int EXEC_UPDATECHECK = 1;
 	public static final int EXEC_FASTFOLLOW  = 2;
 	public static final int EXEC_DLLCHECK    = 3;
+	public static final int EXEC_PREFETCH    = 4;
 
 	private int exec;
 
@@ -4817,6 +5238,10 @@ class HTGT_Background implements Runnable
 			case EXEC_DLLCHECK:
 				HTGT.updateCheckDLL(false, true);
 				break;
+
+			case EXEC_PREFETCH:
+				HTGT.prefetchWorker();
+				break;
 		}
 	}
 }
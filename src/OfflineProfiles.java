@@ -19,21 +19,32 @@
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.StringReader;
+import java.io.IOException;
 
 import java.lang.IndexOutOfBoundsException;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.DocumentBuilder;
+import javax.xml.transform.TransformerException;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
-import org.xml.sax.InputSource;
 
 public class OfflineProfiles
 {
@@ -47,6 +58,8 @@ public class OfflineProfiles
 
 	final private static String DEFAULT_TOKEN    = "DefaultToken";
 
+	final private static Pattern EncodingPattern = Pattern.compile("\\s*<\\?xml[^>]*encoding\\s*=\\s*[\"']([^\"']+)[\"']");
+
 	private File     file     = null;
 	private Document document = null;
 	private boolean  changed  = false;
@@ -59,12 +72,27 @@ public class OfflineProfiles
 	private Element                 TrainingElement;
 	private NodeList                TrainingGhosts;
 	private ArrayList<GhostElement> GhostElements;
+	private GhostStore              Store;
+
+	// Für das Speichern: Inhalt der Datei beim Laden (bzw. letzten
+	// Speichern) und die Positionen der <TrainingGhosts> Abschnitte.
+	private String                  Source;
+	private String                  Output;
+	private Node[]                  Sections;
+	private int[][]                 SectionRanges;
+	private Set<Node>               Dirty = Collections.newSetFromMap(new IdentityHashMap<Node,Boolean>());
+	private boolean                 Rewrite = false;
+
+	// Index: Bedingung -> Geister (siehe gmHelper.getCondition)
+	private int[][]                 ConditionIndex;
+	private int[]                   ConditionCount;
 
 	public OfflineProfiles(String xmlstring) throws Exception
 	{
 		this.file = null;
 		this.document = FNX.getDOMDocument(xmlstring);
 		this.postParsing();
+		this.rebase(xmlstring);
 	}
 
 	public OfflineProfiles(File xmlfile) throws Exception
@@ -101,8 +129,50 @@ public class OfflineProfiles
 		}
 
 		this.changed = false;
-		this.document = FNX.getDOMDocument(this.file);
+		String xml = readFile(this.file);
+
+		if(xml != null)
+		{
+			this.document = FNX.getDOMDocument(xml);
+		}
+		else
+		{
+			this.document = FNX.getDOMDocument(this.file);
+		}
+
 		this.postParsing();
+		this.rebase(xml);
+	}
+
+	// Liest die Datei als UTF-8 ein, damit die unveränderten Abschnitte
+	// beim Speichern übernommen werden können. Bei einer anderen Kodierung
+	// wird null zurückgegeben und die Datei wie früher vom Parser gelesen.
+	private static String readFile(File xmlfile) throws IOException
+	{
+		String xml;
+
+		try
+		{
+			xml = StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(Files.readAllBytes(xmlfile.toPath()))).toString();
+		}
+		catch(CharacterCodingException e)
+		{
+			return null;
+		}
+
+		if(xml.startsWith("\uFEFF"))
+		{
+			xml = xml.substring(1);
+		}
+
+		Matcher encoding = EncodingPattern.matcher(xml);
+
+		if(encoding.lookingAt() && !encoding.group(1).equalsIgnoreCase("UTF-8"))
+		{
+			return null;
+		}
+
+		return xml;
 	}
 
 	private void postParsing() throws ProfileException, GhostException
@@ -183,24 +253,81 @@ public class OfflineProfiles
 
 	public int[] getGhostsByCondition(int mode, String track, int weather)
 	{
-		ArrayList<Integer> ghosts = new ArrayList<Integer>();
+		return this.getGhostsByCondition(gmHelper.getCondition(mode, track, weather));
+	}
 
-		for(int i = 0; i < this.getGhostCount(); i++)
+	public int[] getGhostsByCondition(int condition)
+	{
+		if(condition == gmHelper.CONDITION_NONE || this.ConditionIndex == null || this.ConditionIndex[condition] == null)
 		{
-			GhostElement ghost = this.getGhost(i);
+			return new int[0];
+		}
+
+		return Arrays.copyOf(this.ConditionIndex[condition], this.ConditionCount[condition]);
+	}
 
-			if(ghost.getGameMode() == mode && ghost.getTrack().equalsIgnoreCase(track) && ghost.getWeather() == weather)
+	private void indexGhost(int condition, int index)
+	{
+		if(condition == gmHelper.CONDITION_NONE)
+		{
+			return;
+		}
+
+		int[] bucket = this.ConditionIndex[condition];
+		int count = this.ConditionCount[condition];
+
+		if(bucket == null)
+		{
+			bucket = this.ConditionIndex[condition] = new int[1];
+		}
+		else if(count == bucket.length)
+		{
+			bucket = this.ConditionIndex[condition] = Arrays.copyOf(bucket, count * 2);
+		}
+
+		bucket[count] = index;
+		this.ConditionCount[condition]++;
+	}
+
+	// Entfernt den Geist aus dem Index. Alle nachfolgenden
+	// Geister rutschen (wie in der Liste) eine Position nach vorne.
+	private void unindexGhost(int condition, int index)
+	{
+		for(int c = 0; c < this.ConditionIndex.length; c++)
+		{
+			int[] bucket = this.ConditionIndex[c];
+			int count = this.ConditionCount[c];
+
+			for(int i = 0; i < count; i++)
 			{
-				ghosts.add(i);
+				if(bucket[i] > index)
+				{
+					bucket[i]--;
+				}
+				else if(c == condition && bucket[i] == index)
+				{
+					System.arraycopy(bucket, i + 1, bucket, i, count - i - 1);
+					this.ConditionCount[c] = --count;
+					i--;
+				}
 			}
 		}
+	}
+
+	private void rebuildIndex()
+	{
+		this.ConditionIndex = new int[gmHelper.getConditionCount()][];
+		this.ConditionCount = new int[this.ConditionIndex.length];
 
-		return ghosts.stream().mapToInt(i->i).toArray();
+		for(int i = 0; i < this.GhostElements.size(); i++)
+		{
+			this.indexGhost(this.GhostElements.get(i).getCondition(), i);
+		}
 	}
 
 	public int[] getGhostsByCondition(GhostElement ghost)
 	{
-		return this.getGhostsByCondition(ghost.getGameMode(), ghost.getTrack(), ghost.getWeather());
+		return this.getGhostsByCondition(ghost.getCondition());
 	}
 
 	public GhostElement[][][] getAllGhosts()
@@ -224,15 +351,16 @@ public class OfflineProfiles
 			{
 				for(int w = 0; w < weathers.length; w++)
 				{
-					int[] ghosts = this.getGhostsByCondition(modes[m], tracks[t], weathers[w]);
+					int condition = gmHelper.getCondition(modes[m], t, weathers[w]);
+					int count = this.ConditionCount[condition];
 
-					if(ghosts.length > 1 && warn)
+					if(count > 1 && warn)
 					{
 						return null;
 					}
-					else if(ghosts.length > 0)
+					else if(count > 0)
 					{
-						result[m][t][w] = this.getGhost(ghosts[0]);
+						result[m][t][w] = this.getGhost(this.ConditionIndex[condition][0]);
 					}
 					else
 					{
@@ -261,16 +389,14 @@ public class OfflineProfiles
 			{
 				for(int w = 0; w < weathers.length; w++)
 				{
-					if(result[m][t][w] == null)
-					{
-						result[m][t][w] = new ArrayList<GhostElement>();
-					}
+					int condition = gmHelper.getCondition(modes[m], t, weathers[w]);
+					int count = this.ConditionCount[condition];
 
-					int[] ghosts = this.getGhostsByCondition(modes[m], tracks[t], weathers[w]);
+					result[m][t][w] = new ArrayList<GhostElement>(count);
 
-					for(int i = 0; i < ghosts.length; i++)
+					for(int i = 0; i < count; i++)
 					{
-						result[m][t][w].add(this.getGhost(ghosts[i]));
+						result[m][t][w].add(this.getGhost(this.ConditionIndex[condition][i]));
 					}
 				}
 			}
@@ -281,15 +407,51 @@ public class OfflineProfiles
 
 	public void deleteGhost(int index) throws ProfileException
 	{
-		this.changed = true;
-		this.GhostElements.remove(index);
-		Element GhostElement = (Element) this.TrainingGhosts.item(index);
-		GhostElement.getParentNode().removeChild(GhostElement);
+		this.changed(this.TrainingNode);
+		GhostElement ghost = this.GhostElements.remove(index);
+		this.unindexGhost(ghost.getCondition(), index);
+		ghost.getElement().getParentNode().removeChild(ghost.getElement());
+		ghost.release();
+		this.checkGhosts();
+	}
 
-		if(this.GhostElements.size() != this.TrainingGhosts.getLength())
+	// Löscht mehrere Geister auf einmal (Reihenfolge und Duplikate egal).
+	// Der Index wird danach nur einmal komplett neu aufgebaut.
+	public void deleteGhosts(int[] indices) throws ProfileException
+	{
+		boolean[] delete = new boolean[this.getGhostCount()];
+
+		for(int i = 0; i < indices.length; i++)
 		{
-			throw new ProfileException(String.format("GhostElements(%d) != TrainingGhosts(%d)", this.GhostElements.size(), this.TrainingGhosts.getLength()));
+			if(indices[i] < 0 || indices[i] >= delete.length)
+			{
+				throw new IndexOutOfBoundsException(String.format("Ghost #%d", indices[i]));
+			}
+
+			delete[indices[i]] = true;
 		}
+
+		ArrayList<GhostElement> ghosts = new ArrayList<GhostElement>(this.getGhostCount());
+
+		for(int i = 0; i < delete.length; i++)
+		{
+			GhostElement ghost = this.GhostElements.get(i);
+
+			if(delete[i])
+			{
+				ghost.getElement().getParentNode().removeChild(ghost.getElement());
+				ghost.release();
+			}
+			else
+			{
+				ghosts.add(ghost);
+			}
+		}
+
+		this.changed(this.TrainingNode);
+		this.GhostElements = ghosts;
+		this.rebuildIndex();
+		this.checkGhosts();
 	}
 
 	public int addGhost(String ghost) throws ProfileException, GhostException
@@ -299,18 +461,136 @@ public class OfflineProfiles
 
 	public int addGhost(GhostElement ghost) throws ProfileException, GhostException
 	{
-		this.changed = true;
-		Node importedNode = this.document.importNode(ghost.getElement(), false);
-		this.TrainingNode.appendChild(importedNode);
-		ghost = new GhostElement(importedNode);
+		ghost = this.importGhost(ghost);
+		this.changed(this.TrainingNode);
+		this.TrainingNode.appendChild(ghost.getElement());
 		this.GhostElements.add(ghost);
+		this.indexGhost(ghost.getCondition(), this.GhostElements.size() - 1);
+		this.checkGhosts();
+
+		return this.getGhostCount() - 1;
+	}
+
+	// Gibt den Index des ersten neuen Geistes zurück. Alle Geister werden
+	// zuerst importiert, schlägt das fehl, bleibt das Profil unverändert.
+	public int addGhosts(GhostElement[] ghosts) throws ProfileException, GhostException
+	{
+		GhostElement[] imported = new GhostElement[ghosts.length];
+		int first = this.getGhostCount();
+
+		try
+		{
+			for(int i = 0; i < ghosts.length; i++)
+			{
+				imported[i] = this.importGhost(ghosts[i]);
+			}
+		}
+		catch(GhostException|RuntimeException e)
+		{
+			releaseGhosts(Arrays.asList(imported));
+			throw e;
+		}
+
+		this.changed(this.TrainingNode);
+
+		for(int i = 0; i < imported.length; i++)
+		{
+			this.TrainingNode.appendChild(imported[i].getElement());
+			this.GhostElements.add(imported[i]);
+			this.indexGhost(imported[i].getCondition(), this.GhostElements.size() - 1);
+		}
+
+		this.checkGhosts();
+
+		return first;
+	}
+
+	// Ersetzt alle Geister des Profils durch die übergebene Liste, z.B.
+	// für eine neue Sortierung. Geister aus diesem Profil werden dabei
+	// im DOM nur verschoben, alle anderen werden importiert. Was nicht
+	// in der Liste steht, wird gelöscht. Das DOM wird erst verändert,
+	// wenn alle Geister erfolgreich importiert wurden.
+	public void replaceGhosts(GhostElement[] ghosts) throws ProfileException, GhostException
+	{
+		Set<Node> existing = Collections.newSetFromMap(new IdentityHashMap<Node,Boolean>());
+		Set<Node> moved = Collections.newSetFromMap(new IdentityHashMap<Node,Boolean>());
+		ArrayList<GhostElement> result = new ArrayList<GhostElement>(ghosts.length);
+
+		this.changed(this.TrainingNode);
+
+		for(int i = 0; i < this.GhostElements.size(); i++)
+		{
+			existing.add(this.GhostElements.get(i).getElement());
+		}
+
+		try
+		{
+			for(int i = 0; i < ghosts.length; i++)
+			{
+				Element element = ghosts[i].getElement();
+
+				if(existing.contains(element) && moved.add(element))
+				{
+					result.add(ghosts[i]);
+				}
+				else
+				{
+					result.add(this.importGhost(ghosts[i]));
+				}
+			}
+		}
+		catch(GhostException|RuntimeException e)
+		{
+			releaseGhosts(result.stream().filter(ghost -> !existing.contains(ghost.getElement())).collect(Collectors.toList()));
+			throw e;
+		}
+
+		for(int i = 0; i < this.GhostElements.size(); i++)
+		{
+			GhostElement ghost = this.GhostElements.get(i);
+			Element element = ghost.getElement();
+			element.getParentNode().removeChild(element);
+
+			if(!moved.contains(element))
+			{
+				ghost.release();
+			}
+		}
+
+		for(int i = 0; i < result.size(); i++)
+		{
+			this.TrainingNode.appendChild(result.get(i).getElement());
+		}
+
+		this.GhostElements = result;
+		this.rebuildIndex();
+		this.checkGhosts();
+	}
+
+	// Der neue Knoten wird noch nicht eingehängt, das macht der Aufrufer.
+	private GhostElement importGhost(GhostElement ghost) throws GhostException
+	{
+		return new GhostElement(this.document.importNode(ghost.getElement(), false), this.Store);
+	}
 
+	// Gibt die Slots nicht (mehr) eingehängter Geister im GhostStore frei.
+	private static void releaseGhosts(List<GhostElement> ghosts)
+	{
+		for(GhostElement ghost : ghosts)
+		{
+			if(ghost != null)
+			{
+				ghost.release();
+			}
+		}
+	}
+
+	private void checkGhosts() throws ProfileException
+	{
 		if(this.GhostElements.size() != this.TrainingGhosts.getLength())
 		{
 			throw new ProfileException(String.format("GhostElements(%d) != TrainingGhosts(%d)", this.GhostElements.size(), this.TrainingGhosts.getLength()));
 		}
-
-		return this.getGhostCount() - 1;
 	}
 
 	public String[] getProfiles() throws ProfileException
@@ -392,10 +672,7 @@ public class OfflineProfiles
 
 		String xml = String.format("<OfflineProfile xsi:type=\"GameOfflineProfile\"><Nickname>%s</Nickname><Token>%s</Token><ReceivedAchievements>false</ReceivedAchievements><TrainingGhosts /><DuelReplays /><DuelNicks /><IgnoredFriendDuels /><IgnoredOpenFriends /><PendingPts /><PendingDuelSelection><DuelSelection /></PendingDuelSelection></OfflineProfile>", nickname, this.DEFAULT_TOKEN);
 
-		DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-
-		Document profileDoc = dBuilder.parse(new InputSource(new StringReader(xml)));
+		Document profileDoc = FNX.getDOMDocument(xml);
 		NodeList profileNodes = profileDoc.getElementsByTagName(this.XML_TAG_PROFILE);
 
 		if(profileNodes.getLength() != 1)
@@ -415,7 +692,7 @@ public class OfflineProfiles
 
 		Node profiles = profilesNodes.item(0);
 
-		this.changed = true;
+		this.changed(null);
 		profiles.insertBefore(importedNode, profiles.getFirstChild());
 	}
 
@@ -442,7 +719,7 @@ public class OfflineProfiles
 	{
 		if(index >= 0 && index < this.getProfileCount() && index != this.defaultProfile())
 		{
-			this.changed = true;
+			this.changed(null);
 			Element profile = (Element) OfflineProfiles.item(index);
 			profile.getParentNode().removeChild(profile);
 			return;
@@ -479,7 +756,7 @@ public class OfflineProfiles
 	{
 		if(index >= 0 && index < this.getProfileCount() && index != this.defaultProfile())
 		{
-			this.changed = true;
+			this.changed(null);
 			this.getNickNode((Element) OfflineProfiles.item(index)).setTextContent(nickname);
 
 			return;
@@ -518,10 +795,7 @@ public class OfflineProfiles
 
 		if(TokenElement == null)
 		{
-			DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-			DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-
-			Document doc = dBuilder.newDocument();
+			Document doc = FNX.getDOMDocument();
 			TokenElement = doc.createElement(this.XML_TAG_TOKEN);
 
 			create = true;
@@ -529,7 +803,7 @@ public class OfflineProfiles
 
 		token = (token != null) ? token : this.DEFAULT_TOKEN;
 		TokenElement.setTextContent(token);
-		this.changed = true;
+		this.changed(null);
 
 		if(create)
 		{
@@ -568,6 +842,7 @@ public class OfflineProfiles
 
 		NodeList GhostNodes = this.OfflineProfile.getElementsByTagName(this.XML_TAG_GHOSTS);
 		this.GhostElements = new ArrayList<GhostElement>(0);
+		this.Store = new GhostStore();
 
 		if(GhostNodes.getLength() > 0)
 		{
@@ -578,15 +853,16 @@ public class OfflineProfiles
 			if(this.getGhostCount() > 0)
 			{
 				this.GhostElements = new ArrayList<GhostElement>(this.getGhostCount());
+				this.Store = new GhostStore(this.getGhostCount());
 
 				for(int i = 0; i < this.getGhostCount(); i++)
 				{
 					try
 					{
 						// Damit ein Geist nur einmal verarbeitet wird, werden alle bereits hier eingelesen.
-						// Somit erfolgt nur noch beim Profilwechsel eine aufwändige erneute Verarbeitung.
-						// Das ist allerdings gewollt, damit nicht unnötig Arbeitsspeicher belegt wird.
-						this.GhostElements.add(i, new GhostElement((Element) this.TrainingGhosts.item(i)));
+						// Beim Profilwechsel werden die Elemente verworfen, um Arbeitsspeicher zu sparen.
+						// Die dekodierten Binärdaten kommen dann aber aus dem Cache (siehe GhostData).
+						this.GhostElements.add(i, new GhostElement(this.TrainingGhosts.item(i), this.Store));
 					}
 					catch(GhostException e)
 					{
@@ -595,11 +871,26 @@ public class OfflineProfiles
 				}
 			}
 		}
+
+		this.rebuildIndex();
 	}
 
 	public String toString()
 	{
-		return FNX.getWinNL(FNX.getCleanXML(this.document));
+		if(this.Output == null)
+		{
+			if(this.Source != null && !this.Rewrite)
+			{
+				this.Output = this.splice();
+			}
+
+			if(this.Output == null)
+			{
+				this.Output = FNX.getCleanXML(this.document);
+			}
+		}
+
+		return this.Output;
 	}
 
 	public boolean changed()
@@ -607,8 +898,214 @@ public class OfflineProfiles
 		return this.changed;
 	}
 
+	private void changed(Node section)
+	{
+		this.changed = true;
+		this.Output = null;
+
+		if(section == null)
+		{
+			// Profile, Token, etc.: Alles wird neu geschrieben.
+			this.Rewrite = true;
+		}
+		else
+		{
+			this.Dirty.add(section);
+		}
+	}
+
 	public void saved()
 	{
 		this.changed = false;
+		this.rebase(this.Output);
+	}
+
+	// Merkt sich, wo die <TrainingGhosts> Abschnitte in der
+	// gespeicherten Datei stehen. Ohne Quelle (null) wird beim
+	// nächsten Speichern die gesamte Datei neu geschrieben.
+	private void rebase(String xml)
+	{
+		this.Source = null;
+		this.Sections = null;
+		this.SectionRanges = null;
+		this.Rewrite = false;
+		this.Dirty.clear();
+
+		if(xml == null)
+		{
+			return;
+		}
+
+		NodeList sections = this.document.getElementsByTagName(XML_TAG_GHOSTS);
+		int[][] ranges = findSections(xml);
+
+		if(ranges == null || ranges.length != sections.getLength())
+		{
+			return;
+		}
+
+		this.Sections = new Node[ranges.length];
+
+		for(int i = 0; i < ranges.length; i++)
+		{
+			this.Sections[i] = sections.item(i);
+
+			if(this.Sections[i].hasAttributes())
+			{
+				this.Sections = null;
+				return;
+			}
+		}
+
+		this.Source = xml;
+		this.SectionRanges = ranges;
+	}
+
+	// Sucht alle <TrainingGhosts> Tags (ohne Kommentare, CDATA, etc.)
+	// und gibt jeweils Beginn und Ende des gesamten Abschnitts zurück.
+	private static int[][] findSections(String xml)
+	{
+		ArrayList<int[]> ranges = new ArrayList<int[]>();
+		String open = "<" + XML_TAG_GHOSTS;
+		String close = "</" + XML_TAG_GHOSTS;
+
+		for(int i = xml.indexOf('<'); i >= 0; i = xml.indexOf('<', i))
+		{
+			int end;
+
+			if(xml.startsWith("<!--", i))
+			{
+				end = skip(xml, i, "-->");
+			}
+			else if(xml.startsWith("<![CDATA[", i))
+			{
+				end = skip(xml, i, "]]>");
+			}
+			else if(xml.startsWith("<?", i))
+			{
+				end = skip(xml, i, "?>");
+			}
+			else if(xml.startsWith(open, i) && i + open.length() < xml.length() && (Character.isWhitespace(xml.charAt(i + open.length())) || xml.charAt(i + open.length()) == '/' || xml.charAt(i + open.length()) == '>'))
+			{
+				end = skip(xml, i, ">");
+
+				if(end > 0 && xml.charAt(end - 2) != '/')
+				{
+					end = xml.indexOf(close, end);
+					end = (end < 0) ? -1 : skip(xml, end, ">");
+				}
+
+				if(end > 0)
+				{
+					ranges.add(new int[]{i, end});
+				}
+			}
+			else
+			{
+				end = i + 1;
+			}
+
+			if(end < 0)
+			{
+				return null;
+			}
+
+			i = end;
+		}
+
+		return ranges.toArray(new int[ranges.size()][]);
+	}
+
+	private static int skip(String xml, int start, String delimiter)
+	{
+		int end = xml.indexOf(delimiter, start + 1);
+		return (end < 0) ? -1 : end + delimiter.length();
+	}
+
+	// Übernimmt die unveränderten Bereiche der Datei 1:1 und
+	// schreibt nur die geänderten <TrainingGhosts> neu.
+	private String splice()
+	{
+		String nl = this.Source.contains("\r\n") ? "\r\n" : "\n";
+		StringBuilder xml = new StringBuilder(this.Source.length() + 1024);
+		int last = 0;
+
+		try
+		{
+			for(int i = 0; i < this.Sections.length; i++)
+			{
+				if(!this.Dirty.contains(this.Sections[i]))
+				{
+					continue;
+				}
+				else if(this.Sections[i].getParentNode() == null)
+				{
+					return null;
+				}
+
+				int start = this.SectionRanges[i][0];
+				int lineStart = this.Source.lastIndexOf('\n', start - 1) + 1;
+				String indent = this.Source.substring(lineStart, start);
+
+				if(indent.trim().length() > 0)
+				{
+					indent = "";
+				}
+
+				xml.append(this.Source, last, start);
+				this.appendSection(xml, (Element) this.Sections[i], indent, nl);
+				last = this.SectionRanges[i][1];
+			}
+		}
+		catch(TransformerException e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+
+		xml.append(this.Source, last, this.Source.length());
+
+		return xml.toString();
+	}
+
+	private void appendSection(StringBuilder xml, Element section, String indent, String nl) throws TransformerException
+	{
+		boolean empty = true;
+
+		xml.append('<').append(XML_TAG_GHOSTS);
+
+		for(Node child = section.getFirstChild(); child != null; child = child.getNextSibling())
+		{
+			if(child.getNodeType() != Node.ELEMENT_NODE)
+			{
+				continue;
+			}
+
+			if(empty)
+			{
+				xml.append('>');
+				empty = false;
+			}
+
+			xml.append(nl).append(indent).append("  ");
+
+			// Ohne Transformer, siehe GhostElement.toString(). Das CRLF am
+			// Ende fällt weg, den Zeilenumbruch bestimmt die Datei (nl).
+			GhostElement.toString(xml, (Element) child);
+
+			while(Character.isWhitespace(xml.charAt(xml.length() - 1)))
+			{
+				xml.setLength(xml.length() - 1);
+			}
+		}
+
+		if(empty)
+		{
+			xml.append(" />");
+		}
+		else
+		{
+			xml.append(nl).append(indent).append("</").append(XML_TAG_GHOSTS).append('>');
+		}
 	}
 }
@@ -18,19 +18,12 @@
  */
 
 import java.io.File;
-import java.io.PrintWriter;
-import java.io.StringReader;
-
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.DocumentBuilder;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 import org.w3c.dom.Node;
 
-import org.xml.sax.InputSource;
-
 public class Profiles
 {
 	final private static String XML_TAG_PROFILES = "ProfilList";
@@ -65,10 +58,7 @@ public class Profiles
 
 		String xml = String.format("<Profile xsi:type=\"GameProfile\"><Progress><Entries /></Progress><Inventory /><Controls entries=\"\" nickname=\"\" OnlineSaved=\"False\" /><Player Nickname=\"%s\" OnlineSaved=\"false\" SocialId=\"\" SocialName=\"\" SocialNetworkType=\"1\" ShowAgb=\"false\"><Location>-1</Location></Player><TrackList OnlineSaved=\"false\" /><Settings entries=\"\" nickname=\"\" OnlineSaved=\"False\" /></Profile>", nickname);
 
-		DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-
-		Document profileDoc = dBuilder.parse(new InputSource(new StringReader(xml)));
+		Document profileDoc = FNX.getDOMDocument(xml);
 		NodeList profileNodes = profileDoc.getElementsByTagName(this.XML_TAG_PROFILE);
 
 		if(profileNodes.getLength() != 1)
@@ -222,8 +212,6 @@ public class Profiles
 			throw new Exception();
 		}
 
-		PrintWriter tmp = new PrintWriter(file);
-		tmp.printf("%s", FNX.getWinNL(xml));
-		tmp.close();
+		FNX.writeFile(file, xml);
 	}
 }
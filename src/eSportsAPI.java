@@ -17,16 +17,18 @@
  * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301  USA
  */
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
 
 import java.lang.IndexOutOfBoundsException;
 import java.lang.NullPointerException;
 import java.lang.RuntimeException;
 
+import java.net.ConnectException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.ProtocolException;
@@ -34,24 +36,52 @@ import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.net.URL;
 
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
 import java.text.ParseException;
 
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-
-import javax.net.ssl.HttpsURLConnection;
+import java.util.Set;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import javax.swing.SwingUtilities;
 
 import javax.xml.parsers.ParserConfigurationException;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 public class eSportsAPI
 {
@@ -60,12 +90,98 @@ public class eSportsAPI
 	private final static String API_MAINURL = "https://%s/api";
 	private final static String API_HOST    = "htgt.app";
 	private final static int    API_TIMEOUT = 10000;
+	private final static int    RX_BUFFER   = 16 * 1024;
 
 	private static String host;
+	private static XMLInputFactory xmlInputFactory;
+
+	// Antworten dieser Methoden werden zwischengespeichert (TTL in ms).
+	// Danach werden sie per If-None-Match/If-Modified-Since erneut geprüft.
+	private final static Map<String,Long> CACHE_TTL = new HashMap<String,Long>();
+	private static eSportsAPICache cache = new eSportsAPICache();
+
+	// Laufzeiten, Bytes und Fehler pro Modul/Methode, siehe getMetrics().
+	private static eSportsAPIMetrics metrics = new eSportsAPIMetrics();
+
+	// Gleichzeitige, identische Anfragen dieser (lesenden) Methoden werden
+	// zusammengefasst: Nur die erste geht an den Server, alle anderen warten
+	// auf deren Antwort (oder Fehler).
+	private final static Set<String> COALESCE = new HashSet<String>();
+	private final static Map<String,CompletableFuture<String>> inFlight = new ConcurrentHashMap<String,CompletableFuture<String>>();
+
+	// Diese (lesenden) Methoden dürfen wiederholt werden, siehe RETRY_*.
+	private final static Set<String> RETRY = new HashSet<String>();
+
+	static
+	{
+		CACHE_TTL.put("result.get",  60L * 1000L);
+		CACHE_TTL.put("result.dump", 60L * 1000L);
+		CACHE_TTL.put("track.list",  10L * 60L * 1000L);
+
+		COALESCE.add("ghost.get");
+		COALESCE.add("player.info");
+		COALESCE.add("result.get");
+		COALESCE.add("result.dump");
+		COALESCE.add("track.list");
+
+		RETRY.add("ghost.get");
+		RETRY.add("result.get");
+		RETRY.add("result.dump");
+		RETRY.add("track.list");
+	}
+
+	// Einzelne getGhostByID() Aufrufe innerhalb des Zeitfensters (ms) werden
+	// zu einer byIDs Anfrage zusammengefasst, solange die ID-Liste nicht
+	// länger als GHOST_BATCH_BYTES wird.
+	private final static long GHOST_BATCH_WINDOW = 20L;
+	private final static int  GHOST_BATCH_BYTES  = 4096;
+
+	// Die *Async() Methoden laufen in einem eigenen, begrenzten Pool. Mehr
+	// als ASYNC_QUEUE wartende Aufrufe werden abgelehnt, anstatt sich (z.B.
+	// bei Netzwerkproblemen) unbegrenzt aufzustauen.
+	private final static int  ASYNC_THREADS  = 4;
+	private final static int  ASYNC_QUEUE    = 64;
+	private final static long ASYNC_DEADLINE = API_TIMEOUT * 4L;
+
+	// Maximale Anzahl gleichzeitiger result.apply in applyResultsByGhostIDs().
+	private final static int  APPLY_PARALLEL = 4;
+
+	// Lesende Methoden (RETRY) werden bei schnellen Fehlern (Host unbekannt,
+	// Verbindung abgelehnt, 5xx Antwort) bis zu RETRY_ATTEMPTS-mal gesendet.
+	// Die Wartezeit dazwischen ist zufällig (0 bis RETRY_DELAY * 2^n,
+	// maximal RETRY_MAX_DELAY ms), damit nicht alle Clients gleichzeitig
+	// wieder anfragen. Timeouts werden nicht wiederholt und nach RETRY_BUDGET
+	// ms wird kein weiterer Versuch gestartet. Ein Aufruf dauert dadurch
+	// höchstens RETRY_BUDGET + Read-Timeout, also weniger als ASYNC_DEADLINE.
+	private final static int  RETRY_ATTEMPTS  = 3;
+	private final static long RETRY_DELAY     = 250L;
+	private final static long RETRY_MAX_DELAY = 4000L;
+	private final static long RETRY_BUDGET    = API_TIMEOUT / 2;
+
+	// Nach CIRCUIT_FAILURES fehlgeschlagenen Aufrufen (Netzwerkfehler oder
+	// 5xx, Wiederholungen zählen nicht extra) in Folge werden alle Anfragen
+	// für CIRCUIT_OPEN ms sofort abgelehnt (INTERNAL_NETWORK_ERROR). Danach
+	// darf eine einzelne Anfrage prüfen, ob der Server wieder erreichbar ist.
+	private final static int  CIRCUIT_FAILURES = 5;
+	private final static long CIRCUIT_OPEN     = 30L * 1000L;
+	private static eSportsAPI_CircuitBreaker circuit = new eSportsAPI_CircuitBreaker(CIRCUIT_FAILURES, CIRCUIT_OPEN);
+
+	private static ThreadPoolExecutor executor;
+	private static ScheduledExecutorService timer;
 
 	private String token;
 	private String useragent;
 	private String osdata;
+	private long deadline = ASYNC_DEADLINE;
+
+	private int retryAttempts = RETRY_ATTEMPTS;
+	private long retryDelay = RETRY_DELAY;
+	private long retryMaxDelay = RETRY_MAX_DELAY;
+
+	private long ghostBatchWindow = GHOST_BATCH_WINDOW;
+	private int ghostBatchBytes = GHOST_BATCH_BYTES;
+	private eSportsAPI_GhostBatch ghostBatch;
+	private int ghostBatchCallers = 0;
 
 	private final static int RESULT_TYPE_NEXT = 0;
 	private final static int RESULT_TYPE_PREV = 1;
@@ -100,11 +216,49 @@ public class eSportsAPI
 		else
 		{
 			// TODO: Validation hinzufügen?
-			// (host oder host:port Format!)
+			// (host, host:port oder http[s]://host[:port] Format!)
+			// Über http:// kann z.B. ein lokaler Testserver genutzt werden.
+			// Der Token wird dorthin aber nur gesendet, wenn es localhost
+			// ist (siehe isSecure), alles andere bräuchte HTTPS.
 			host = fqdn;
 		}
 	}
 
+	// null deaktiviert den Cache.
+	public static void setCache(eSportsAPICache c)
+	{
+		cache = c;
+	}
+
+	public static eSportsAPICache getCache()
+	{
+		return cache;
+	}
+
+	// null deaktiviert die Messwerte.
+	public static void setMetrics(eSportsAPIMetrics m)
+	{
+		metrics = m;
+	}
+
+	public static eSportsAPIMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	// Verwirft alle zwischengespeicherten Ranglisten. Wird nach einem
+	// erfolgreichen result.apply automatisch aufgerufen, kann aber auch
+	// nach anderen Änderungen (z.B. auf der Webseite) genutzt werden.
+	public static void invalidateCache()
+	{
+		eSportsAPICache c = cache;
+
+		if(c != null)
+		{
+			c.invalidate("offline/result.");
+		}
+	}
+
 	public void setToken(String token)
 	{
 		this.token = token;
@@ -115,6 +269,33 @@ public class eSportsAPI
 		this.useragent = useragent;
 	}
 
+	// Maximale Dauer (ms) eines asynchronen Aufrufs, 0 = unbegrenzt.
+	public void setDeadline(long ms)
+	{
+		this.deadline = Math.max(0L, ms);
+	}
+
+	// window = 0 deaktiviert das Zusammenfassen von getGhostByID().
+	public void setGhostBatch(long window, int bytes)
+	{
+		this.ghostBatchWindow = Math.max(0L, window);
+		this.ghostBatchBytes = Math.max(1, bytes);
+	}
+
+	// attempts = 1 deaktiviert die Wiederholungen.
+	public void setRetry(int attempts, long delay, long maxDelay)
+	{
+		this.retryAttempts = Math.max(1, attempts);
+		this.retryDelay = Math.max(0L, delay);
+		this.retryMaxDelay = Math.max(this.retryDelay, maxDelay);
+	}
+
+	// failures = 0 deaktiviert den Circuit Breaker (für alle Instanzen).
+	public static void setCircuitBreaker(int failures, long open)
+	{
+		circuit = new eSportsAPI_CircuitBreaker(failures, open);
+	}
+
 	public String[] getServerTracks()
 	{
 		if(serverTracks == null)
@@ -135,7 +316,111 @@ public class eSportsAPI
 		return this.lastTypeIndex[RESULT_TYPE_PREV];
 	}
 
+	// Der erste Aufruf wartet bis zu ghostBatchWindow ms auf weitere (z.B.
+	// aus anderen Threads oder getGhostByIDAsync) und holt dann alle Geister
+	// mit einer einzigen Anfrage. Läuft gerade kein anderer Aufruf, wird
+	// nicht gewartet: Ein einzelner Aufruf kostet so keine zusätzliche Zeit,
+	// bei vielen gleichzeitigen sammeln sich die IDs, während die vorherige
+	// Anfrage noch läuft. Die Antwort enthält keine IDs, daher wird die
+	// Reihenfolge genutzt. Passt die Anzahl nicht (z.B. weil eine ID
+	// unbekannt ist), holt sich jeder Aufruf seinen Geist doch einzeln.
 	public GhostElement getGhostByID(int id) throws eSportsAPIException
+	{
+		if(this.ghostBatchWindow <= 0L)
+		{
+			return this.getSingleGhostByID(id);
+		}
+
+		synchronized(this)
+		{
+			this.ghostBatchCallers++;
+		}
+
+		try
+		{
+			return this.getBatchedGhostByID(id);
+		}
+		finally
+		{
+			synchronized(this)
+			{
+				this.ghostBatchCallers--;
+			}
+		}
+	}
+
+	private GhostElement getBatchedGhostByID(int id) throws eSportsAPIException
+	{
+		eSportsAPI_GhostBatch batch;
+		boolean leader = false;
+		long window = 0L;
+		int index;
+
+		synchronized(this)
+		{
+			batch = this.ghostBatch;
+			index = (batch != null) ? batch.add(id, this.ghostBatchBytes) : -1;
+
+			if(index == -1)
+			{
+				batch = this.ghostBatch = new eSportsAPI_GhostBatch();
+				index = batch.add(id, Integer.MAX_VALUE);
+				leader = true;
+
+				if(this.ghostBatchCallers > 1)
+				{
+					window = this.ghostBatchWindow;
+				}
+			}
+		}
+
+		if(leader)
+		{
+			int[] ids = batch.close(window);
+
+			synchronized(this)
+			{
+				if(this.ghostBatch == batch)
+				{
+					this.ghostBatch = null;
+				}
+			}
+
+			try
+			{
+				if(ids.length == 1)
+				{
+					batch.complete(new GhostElement[]{this.getSingleGhostByID(ids[0])});
+				}
+				else
+				{
+					System.err.printf("Ghost batch: %d IDs%n", ids.length);
+					GhostElement[] ghosts = this.getGhostsByIDs(ids);
+					batch.complete((ghosts.length == ids.length) ? ghosts : null);
+				}
+			}
+			catch(eSportsAPIException e)
+			{
+				batch.fail(e);
+			}
+			catch(RuntimeException e)
+			{
+				// Sonst warten die anderen Aufrufe ewig.
+				batch.fail(new eSportsAPIException(e));
+			}
+		}
+
+		GhostElement ghost = batch.get(index);
+
+		if(ghost == null)
+		{
+			return this.getSingleGhostByID(id);
+		}
+
+		return ghost;
+	}
+
+	private GhostElement getSingleGhostByID(int id) throws eSportsAPIException
 	{
 		try
 		{
@@ -195,25 +480,33 @@ public class eSportsAPI
 
 			for(int i = 0; i < ghosts.length; i++)
 			{
-				data.append(ghosts[i].toString());
+				ghosts[i].toString(data);
 			}
 
 			args.put("XML", data.toString());
 			String result = this.request("OFFLINE", "ghost.put", args);
 
-			Document doc = FNX.getDOMDocument(result);
-			NodeList GhostNodes = doc.getElementsByTagName("Ghost");
-			int[] ghostIDs = new int[GhostNodes.getLength()];
+			XMLStreamReader reader = getXMLReader(result);
+			List<Integer> ghostIDs = new ArrayList<Integer>(ghosts.length);
 
-			for(int i = 0; i < GhostNodes.getLength(); i++)
+			try
 			{
-				Element ghost = (Element) GhostNodes.item(i);
-				ghostIDs[i] = Integer.parseInt(ghost.getAttribute("ID"));
+				while(reader.hasNext())
+				{
+					if(reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals("Ghost"))
+					{
+						ghostIDs.add(Integer.parseInt(getAttribute(reader, "ID")));
+					}
+				}
+			}
+			finally
+			{
+				reader.close();
 			}
 
-			return ghostIDs;
+			return ghostIDs.stream().mapToInt(Integer::intValue).toArray();
 		}
-		catch(SAXException|ParserConfigurationException|IOException e)
+		catch(XMLStreamException e)
 		{
 			throw new eSportsAPIException(e);
 		}
@@ -226,17 +519,15 @@ public class eSportsAPI
 			Map<String,Object> args = new HashMap<String,Object>();
 			args.put("ghostID", Integer.toString(ghostID));
 			String result = this.request("OFFLINE", "result.apply", args);
+			Map<String,String> ghost = readElement(result, "Ghost");
 
-			Document doc = FNX.getDOMDocument(result);
-			NodeList GhostNodes = doc.getElementsByTagName("Ghost");
-
-			if(GhostNodes.getLength() > 0)
+			if(ghost != null)
 			{
-				Element ghost = (Element) GhostNodes.item(0);
-				int id = Integer.parseInt(ghost.getAttribute("ID"));
+				int id = Integer.parseInt(ghost.getOrDefault("@ID", ""));
 
 				if(id == ghostID)
 				{
+					invalidateCache();
 					return true;
 				}
 				else
@@ -249,12 +540,102 @@ public class eSportsAPI
 				throw new ParserConfigurationException("Missing <Ghost> tag in reply");
 			}
 		}
-		catch(SAXException|ParserConfigurationException|IOException e)
+		catch(ParserConfigurationException|XMLStreamException e)
 		{
 			throw new eSportsAPIException(e);
 		}
 	}
 
+	// Trägt die Ergebnisse mehrerer Geister parallel ein (höchstens
+	// APPLY_PARALLEL gleichzeitig), der aufrufende Thread arbeitet mit.
+	// Ergebnis in der Reihenfolge von ghostIDs: null = erfolgreich, sonst
+	// der jeweilige Fehler. Eine unerwartete Antwort (applyResultByGhostID
+	// liefert false) ergibt eine leere eSportsAPIException.
+	public Map<Integer,eSportsAPIException> applyResultsByGhostIDs(int[] ghostIDs)
+	{
+		long start = System.nanoTime();
+		eSportsAPIException[] errors = new eSportsAPIException[ghostIDs.length];
+		CountDownLatch done = new CountDownLatch(ghostIDs.length);
+		AtomicInteger next = new AtomicInteger();
+
+		Runnable worker = () ->
+		{
+			int i;
+
+			while((i = next.getAndIncrement()) < ghostIDs.length)
+			{
+				try
+				{
+					if(!this.applyResultByGhostID(ghostIDs[i]))
+					{
+						errors[i] = new eSportsAPIException();
+					}
+				}
+				catch(eSportsAPIException e)
+				{
+					errors[i] = e;
+				}
+				catch(RuntimeException e)
+				{
+					errors[i] = new eSportsAPIException(e);
+				}
+				finally
+				{
+					done.countDown();
+				}
+			}
+		};
+
+		// Ist der Pool ausgelastet, erledigt der aufrufende Thread eben mehr.
+		// Gewartet wird nur auf bereits begonnene Aufrufe, daher kann das
+		// auch innerhalb des Pools (z.B. per async) nicht hängen bleiben.
+		for(int w = 1; w < Math.min(APPLY_PARALLEL, ghostIDs.length); w++)
+		{
+			try
+			{
+				getExecutor().execute(worker);
+			}
+			catch(RejectedExecutionException e)
+			{
+				break;
+			}
+		}
+
+		worker.run();
+		boolean interrupted = false;
+
+		while(true)
+		{
+			try
+			{
+				done.await();
+				break;
+			}
+			catch(InterruptedException e)
+			{
+				interrupted = true;
+			}
+		}
+
+		if(interrupted)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		Map<Integer,eSportsAPIException> results = new LinkedHashMap<Integer,eSportsAPIException>();
+		int failed = 0;
+
+		for(int i = 0; i < ghostIDs.length; i++)
+		{
+			results.put(ghostIDs[i], errors[i]);
+			failed += (errors[i] != null) ? 1 : 0;
+		}
+
+		System.err.printf("Bulk apply: %d ghosts, %d failed (%d ms)%n", ghostIDs.length, failed, (System.nanoTime() - start) / 1000000L);
+
+		return results;
+	}
+
 	public Map<String,Object> getPlayerInfo() throws eSportsAPIException
 	{
 		try
@@ -262,18 +643,16 @@ public class eSportsAPI
 			Map<String,Object> values = new HashMap<String,Object>();
 			String result = this.request("OFFLINE", "player.info", null);
 
-			Document doc = FNX.getDOMDocument(result);
-			NodeList OfflinePlayer = doc.getElementsByTagName("OfflinePlayer");
+			// Gelesen wird nur das erste <OfflinePlayer>.
+			Map<String,String> player = readElement(result, "OfflinePlayer", "Nickname", "Username", "Title");
 
-			if(OfflinePlayer.getLength() > 0)
+			if(player != null)
 			{
-				Element OfflinePlayerElement = (Element) OfflinePlayer.item(0);
-				// int id = Integer.parseInt(OfflinePlayerElement.getAttribute("ID"));
-
-				values.put("Nickname", OfflinePlayerElement.getElementsByTagName("Nickname").item(0).getTextContent());
-				values.put("Useraccount", OfflinePlayerElement.getElementsByTagName("Username").item(0).getTextContent());
-				// values.put("CompetitionKey", OfflinePlayerElement.getElementsByTagName("Key").item(0).getTextContent());
-				values.put("CompetitionName", OfflinePlayerElement.getElementsByTagName("Title").item(0).getTextContent());
+				// values.put("ID", player.get("@ID"));
+				values.put("Nickname", getText(player, "Nickname"));
+				values.put("Useraccount", getText(player, "Username"));
+				// values.put("CompetitionKey", getText(player, "Key"));
+				values.put("CompetitionName", getText(player, "Title"));
 
 				return values;
 			}
@@ -282,7 +661,7 @@ public class eSportsAPI
 				throw new ParserConfigurationException("Missing <OfflinePlayer> tag in reply");
 			}
 		}
-		catch(SAXException|ParserConfigurationException|IOException|NullPointerException e)
+		catch(ParserConfigurationException|XMLStreamException e)
 		{
 			throw new eSportsAPIException(e);
 		}
@@ -320,24 +699,28 @@ public class eSportsAPI
 			args.put("byWeatherID", weather);
 			args.put("forceWeather", (forceWeather) ? 1 : 0);
 			String result = this.request("OFFLINE", "result.get", args);
+			List<Map<String,Object>> values = new ArrayList<Map<String,Object>>();
+			XMLStreamReader reader = getXMLReader(result);
 
-			Document doc = FNX.getDOMDocument(result);
-			NodeList OfflineResults = doc.getElementsByTagName("OfflineResult");
-			List<Map<String,Object>> values = new ArrayList<Map<String,Object>>(OfflineResults.getLength());
-
-			if(OfflineResults.getLength() > 0)
+			try
 			{
-				for(int i = 0; i < OfflineResults.getLength(); i++)
+				for(int i = 0; ; i++)
 				{
-					Element OfflineResult = (Element) OfflineResults.item(i);
+					Map<String,String> OfflineResult = readElement(reader, "OfflineResult", "Nickname", "Result", "Position", "Ghost");
+
+					if(OfflineResult == null)
+					{
+						break;
+					}
+
 					Map<String,Object> hm = new HashMap<String,Object>(4);
 
-					hm.put("Nickname", OfflineResult.getElementsByTagName("Nickname").item(0).getTextContent());
-					hm.put("Result", Integer.parseInt(OfflineResult.getElementsByTagName("Result").item(0).getTextContent()));
-					hm.put("Position", Integer.parseInt(OfflineResult.getElementsByTagName("Position").item(0).getTextContent()));
-					hm.put("GhostID", Integer.parseInt(((Element) OfflineResult.getElementsByTagName("Ghost").item(0)).getAttribute("ID")));
+					hm.put("Nickname", getText(OfflineResult, "Nickname"));
+					hm.put("Result", Integer.parseInt(getText(OfflineResult, "Result")));
+					hm.put("Position", Integer.parseInt(getText(OfflineResult, "Position")));
+					hm.put("GhostID", Integer.parseInt(getText(OfflineResult, "Ghost@ID")));
 
-					switch(OfflineResult.getAttribute("Type").toLowerCase())
+					switch(OfflineResult.getOrDefault("@Type", "").toLowerCase())
 					{
 						case "next":
 							this.lastTypeIndex[RESULT_TYPE_NEXT] = i;
@@ -355,10 +738,14 @@ public class eSportsAPI
 					values.add(i, hm);
 				}
 			}
+			finally
+			{
+				reader.close();
+			}
 
 			return values;
 		}
-		catch(SAXException|ParserConfigurationException|IOException|NullPointerException e)
+		catch(ParserConfigurationException|XMLStreamException e)
 		{
 			throw new eSportsAPIException(e);
 		}
@@ -418,54 +805,36 @@ public class eSportsAPI
 			// Diese Methode liefert aber nur aktive Strecken zurück!
 			// Allerdings mit automatischer Qualifikation/Rennen Erkennung.
 			String result = this.request("OFFLINE", "result.dump", args);
+			XMLStreamReader reader = getXMLReader(result);
 
-			Document doc = FNX.getDOMDocument(result);
-			NodeList OfflineResults = doc.getElementsByTagName("OfflineResult");
-
-			if(OfflineResults.getLength() > 0)
+			try
 			{
-				for(int i = 0; i < OfflineResults.getLength(); i++)
-				{
-					Element OfflineResult = (Element) OfflineResults.item(i);
-					Map<String,Object> hm = new HashMap<String,Object>(4);
+				Map<String,String> OfflineResult;
 
-					String track = OfflineResult.getAttribute("Track").toLowerCase();
-					String weather = OfflineResult.getAttribute("Weather").toLowerCase();
-					String gamemode = OfflineResult.getAttribute("GameMode").toLowerCase();
+				while((OfflineResult = readElement(reader, "OfflineResult", "Result")) != null)
+				{
+					int condition = gmHelper.parseCondition(OfflineResult.getOrDefault("@GameMode", ""), OfflineResult.getOrDefault("@Track", ""), OfflineResult.getOrDefault("@Weather", ""));
 
 					int o = this.FO_NONE;
 					int m = -1;
 					int t = -1;
 					int w = -1;
 
-					for(int h = 0; h < modes.length; h++)
-					{
-						if(gmHelper.getGameMode(modes[h]).equals(gamemode))
-						{
-							m = h;
-							break;
-						}
-					}
-
-					for(int h = 0; h < tracks.length; h++)
+					// Die Indizes entsprechen getGameModeIDs() und getWeatherIDs(),
+					// solange Spielmodus und Wetter überhaupt darin enthalten sind.
+					if(condition != gmHelper.CONDITION_NONE)
 					{
-						if(tracks[h].equals(track))
-						{
-							t = h;
-							break;
-						}
-					}
+						m = gmHelper.getConditionGameMode(condition);
+						t = gmHelper.getConditionTrackIndex(condition);
+						w = gmHelper.getConditionWeatherIndex(condition);
 
-					for(int h = 0; h < weathers.length; h++)
-					{
-						if(gmHelper.getWeather(weathers[h]).equals(weather))
+						if(m >= modes.length || w >= weathers.length)
 						{
-							w = h;
-							break;
+							m = w = -1;
 						}
 					}
 
-					if(OfflineResult.getAttribute("Ticket").equalsIgnoreCase("true"))
+					if(OfflineResult.getOrDefault("@Ticket", "").equalsIgnoreCase("true"))
 					{
 						o = this.FO_TICKET;
 					}
@@ -478,11 +847,15 @@ public class eSportsAPI
 						throw new eSportsAPIException();
 					}
 
-					results[o][m][t][w] = Integer.parseInt(OfflineResult.getElementsByTagName("Result").item(0).getTextContent());
+					results[o][m][t][w] = Integer.parseInt(getText(OfflineResult, "Result"));
 				}
 			}
+			finally
+			{
+				reader.close();
+			}
 		}
-		catch(SAXException|ParserConfigurationException|IOException|NullPointerException|gmException e)
+		catch(ParserConfigurationException|XMLStreamException|gmException e)
 		{
 			throw new eSportsAPIException(e);
 		}
@@ -498,7 +871,6 @@ public class eSportsAPI
 
 		int[] modes = gmHelper.getGameModeIDs();
 		String[] tracks = gmHelper.getTracks(true);
-		int[] weathers = gmHelper.getWeatherIDs(true, true);
 		int results[][][] = new int[2][modes.length][tracks.length];
 
 		for(int o = 0; o < this.FOS; o++)
@@ -520,53 +892,46 @@ public class eSportsAPI
 			// Diese Methode liefert weit mehr, als aktuell gebraucht wird.
 			// Immerhin wird mittlerweile auch die Streckenreihenfolge genutzt.
 			String result = this.request("OFFLINE", "track.list", args);
+			List<Map<String,String>> Tracks = new ArrayList<Map<String,String>>();
+			XMLStreamReader reader = getXMLReader(result);
 
-			Document doc = FNX.getDOMDocument(result);
-			NodeList Tracks = doc.getElementsByTagName("Track");
-			String[] tmpTracks = new String[Tracks.getLength()];
-
-			if(Tracks.getLength() > 0)
+			try
 			{
-				for(int i = 0; i < Tracks.getLength(); i++)
+				Map<String,String> Track;
+
+				while((Track = readElement(reader, "Track")) != null)
 				{
-					Element Track = (Element) Tracks.item(i);
+					Tracks.add(Track);
+				}
+			}
+			finally
+			{
+				reader.close();
+			}
 
+			String[] tmpTracks = new String[Tracks.size()];
 
+			if(Tracks.size() > 0)
+			{
+				for(int i = 0; i < Tracks.size(); i++)
+				{
+					Map<String,String> Track = Tracks.get(i);
 
-					String track = Track.getAttribute("Track").toLowerCase();
-					String weather = Track.getAttribute("Weather").toLowerCase();
-					String gamemode = Track.getAttribute("GameMode").toLowerCase();
+					String track = Track.getOrDefault("@Track", "").toLowerCase();
 
 					int o = this.FO_NONE;
-					int m = -1;
-					int t = -1;
-					int w = -1;
-
-					for(int h = 0; h < modes.length; h++)
-					{
-						if(gmHelper.getGameMode(modes[h]).equals(gamemode))
-						{
-							m = h;
-							break;
-						}
-					}
+					int m = gmHelper.findGameMode(Track.getOrDefault("@GameMode", ""));
+					int t = gmHelper.getTrackIndex(track);
+					int w = gmHelper.findWeather(Track.getOrDefault("@Weather", ""));
 
-					for(int h = 0; h < tracks.length; h++)
+					if(m >= modes.length)
 					{
-						if(tracks[h].equals(track))
-						{
-							t = h;
-							break;
-						}
+						m = -1;
 					}
 
-					for(int h = 0; h < weathers.length; h++)
+					if(w == gmHelper.WEATHER_NONE)
 					{
-						if(gmHelper.getWeather(weathers[h]).equals(weather))
-						{
-							w = weathers[h];
-							break;
-						}
+						w = -1;
 					}
 
 					if(t != -1)
@@ -596,12 +961,12 @@ public class eSportsAPI
 						}
 					}
 
-					if(!Track.getAttribute("Race").equalsIgnoreCase("true"))
+					if(!Track.getOrDefault("@Race", "").equalsIgnoreCase("true"))
 					{
 						continue;
 					}
 
-					if(Track.getAttribute("Ticket").equalsIgnoreCase("true"))
+					if(Track.getOrDefault("@Ticket", "").equalsIgnoreCase("true"))
 					{
 						o = this.FO_TICKET;
 					}
@@ -635,7 +1000,7 @@ public class eSportsAPI
 			}
 
 		}
-		catch(SAXException|ParserConfigurationException|IOException|NullPointerException|gmException e)
+		catch(XMLStreamException e)
 		{
 			throw new eSportsAPIException(e);
 		}
@@ -651,13 +1016,11 @@ public class eSportsAPI
 			args.put("autocheck", ((autocheck) ? "true" : "false"));
 			args.put("application", app); args.put("version", version);
 			String result = this.request("OFFLINE", "update.check", args);
+			Map<String,String> ResultNode = readElement(result, "Result");
 
-			Document doc = FNX.getDOMDocument(result);
-			NodeList ResultNodeList = doc.getElementsByTagName("Result");
-
-			if(ResultNodeList.getLength() > 0)
+			if(ResultNode != null)
 			{
-				String ResultElement = ((Element) ResultNodeList.item(0)).getTextContent().toUpperCase().trim();
+				String ResultElement = ResultNode.get("").toUpperCase().trim();
 
 				if(ResultElement.equals("NO_UPDATES"))
 				{
@@ -677,7 +1040,7 @@ public class eSportsAPI
 				throw new ParserConfigurationException("Missing <Result> tag in reply");
 			}
 		}
-		catch(SAXException|ParserConfigurationException|IOException e)
+		catch(ParserConfigurationException|XMLStreamException e)
 		{
 			throw new eSportsAPIException(e);
 		}
@@ -688,98 +1051,983 @@ public class eSportsAPI
 		return this.updateAvailable(app, version, false);
 	}
 
-	private String request(String module, String method, Map<?,?> data) throws eSportsAPIException
+	// Asynchrone Varianten der obigen Methoden. Das Ergebnis wird immer im
+	// Event Dispatch Thread gesetzt, d.h. whenComplete(), thenAccept() usw.
+	// dürfen direkt auf Swing zugreifen (außer es wartet ein anderer Thread
+	// mit get() oder join(), der führt sie u.U. selbst aus). Fehler sind immer eSportsAPIException
+	// (siehe getException), abgebrochene Aufrufe CancellationException.
+	// ACHTUNG: getNextResultIndex() und getPrevResultIndex() beziehen sich
+	// auf den zuletzt beendeten Aufruf von getResultsByCondition(Async)!
+	public CompletableFuture<GhostElement> getGhostByIDAsync(int id)
 	{
-		HttpsURLConnection connection;
-		StringBuffer response;
-		DataOutputStream tx;
-		BufferedReader rx;
-		String line;
+		return this.async(() -> this.getGhostByID(id));
+	}
 
-		if(host == null) { setHost(null); }
-		String apihost = String.format(API_MAINURL, host);
+	public CompletableFuture<GhostElement[]> getGhostsByIDsAsync(int[] ids)
+	{
+		return this.async(() -> this.getGhostsByIDs(ids));
+	}
 
-		module = module.toLowerCase();
-		method = method.toLowerCase();
+	public CompletableFuture<GhostElement[]> getGhostsByIDsAsync(Integer[] ids)
+	{
+		return this.async(() -> this.getGhostsByIDs(ids));
+	}
 
-		String postdata = (data != null) ? FNX.buildQueryString(data) : "";
-		String url = String.format(API_REQUEST, apihost, API_VERSION, module, method);
-		System.err.printf("HTTP POST: %s (%d byte)%n", url, postdata.length());
-		// System.err.printf("POST DATA: %s%n", postdata);
+	public CompletableFuture<int[]> getGhostIDsAsync(GhostElement[] ghosts)
+	{
+		return this.async(() -> this.getGhostIDs(ghosts));
+	}
 
-		try
-		{
-			connection = (HttpsURLConnection) new URL(url).openConnection();
-			connection.setReadTimeout(API_TIMEOUT * 3);
-			connection.setConnectTimeout(API_TIMEOUT);
+	public CompletableFuture<Boolean> applyResultByGhostIDAsync(int ghostID)
+	{
+		return this.async(() -> this.applyResultByGhostID(ghostID));
+	}
 
-			if(this.useragent != null)
-			{
-				connection.setRequestProperty("User-Agent", this.useragent);
-			}
+	public CompletableFuture<Map<Integer,eSportsAPIException>> applyResultsByGhostIDsAsync(int[] ghostIDs)
+	{
+		return this.async(() -> this.applyResultsByGhostIDs(ghostIDs));
+	}
 
-			if(module.equals("offline") && this.token != null)
-			{
-				connection.setRequestProperty("X-Auth-Token", this.token);
-			}
+	public CompletableFuture<Map<String,Object>> getPlayerInfoAsync()
+	{
+		return this.async(() -> this.getPlayerInfo());
+	}
 
-			if(this.osdata == null)
-			{
-				this.osdata = String.format("%s; %s; %s; %s; %s; %s", System.getProperty("os.name"), System.getProperty("os.arch"), System.getProperty("os.version"), System.getProperty("java.runtime.name"), System.getProperty("java.version"), Locale.getDefault());
-			}
-			connection.setRequestProperty("X-OS-Data", this.osdata);
+	public CompletableFuture<List<Map<String,Object>>> getResultsByConditionAsync(String mode, String track, String weather, boolean forceWeather)
+	{
+		return this.async(() -> this.getResultsByCondition(mode, track, weather, forceWeather));
+	}
 
-			connection.setRequestMethod("POST"); connection.setDoOutput(true);
-			tx = new DataOutputStream(connection.getOutputStream());
-			tx.writeBytes(postdata); tx.flush(); tx.close();
-			// System.out.println(postdata);
+	public CompletableFuture<List<Map<String,Object>>> getResultsByConditionAsync(int mode, String track, int weather, boolean forceWeather)
+	{
+		return this.async(() -> this.getResultsByCondition(mode, track, weather, forceWeather));
+	}
 
-			int code = connection.getResponseCode();
-			String msg = connection.getResponseMessage();
+	public CompletableFuture<int[][][][]> getAllResultsAsync()
+	{
+		return this.async(() -> this.getAllResults());
+	}
 
-			if(code < 400)
-			{
-				rx = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-			}
-			else
-			{
-				rx = new BufferedReader(new InputStreamReader(connection.getErrorStream()));
-			}
+	public CompletableFuture<int[][][][]> getSelectiveResultsAsync(int[][] filter)
+	{
+		return this.async(() -> this.getSelectiveResults(filter));
+	}
 
-			response = new StringBuffer();
-			while((line = rx.readLine()) != null)
-			{
-				response.append(line);
-			}
-			rx.close();
+	public CompletableFuture<int[][][]> getRaceWeatherAsync()
+	{
+		return this.async(() -> this.getRaceWeather());
+	}
+
+	public CompletableFuture<Boolean> updateAvailableAsync(String app, String version, boolean autocheck)
+	{
+		return this.async(() -> this.updateAvailable(app, version, autocheck));
+	}
+
+	private <T> CompletableFuture<T> async(Callable<T> task)
+	{
+		return async(task, this.deadline);
+	}
 
-			String content = response.toString();
-			System.err.printf("HTTP %d: %s (%s; %d byte)%n", code, url, msg, content.length());
+	// Führt task im API-Pool aus. Wird das Future abgebrochen (cancel) oder
+	// die Deadline überschritten, wird der Thread unterbrochen. Eine bereits
+	// laufende HTTP-Anfrage endet aber erst mit ihrem eigenen Timeout, das
+	// Ergebnis wird dann verworfen.
+	public static <T> CompletableFuture<T> async(Callable<T> task, long deadline)
+	{
+		CompletableFuture<T> future = new CompletableFuture<T>();
+		Future<?> job, timeout = null;
 
-			if(code != 200)
+		try
+		{
+			job = getExecutor().submit(() ->
 			{
-				String body = content.trim();
-				if(body.matches("^[a-zA-Z0-9_]{1,32}$"))
+				if(future.isDone())
 				{
-					throw new eSportsAPIException(body.toUpperCase());
+					return;
 				}
-				else
+
+				try
 				{
-					throw new eSportsAPIException();
+					T result = task.call();
+					SwingUtilities.invokeLater(() -> future.complete(result));
 				}
-			}
-			else
-			{
-				return content;
-			}
-		}
-		catch(UnknownHostException|SocketTimeoutException e)
-		{
-			throw new eSportsAPIException(e, "INTERNAL_NETWORK_ERROR");
+				catch(Exception e)
+				{
+					if(future.isDone())
+					{
+						return;
+					}
+
+					eSportsAPIException error = getException(e);
+					SwingUtilities.invokeLater(() -> future.completeExceptionally(error));
+				}
+			});
+		}
+		catch(RejectedExecutionException e)
+		{
+			eSportsAPIException error = new eSportsAPIException(e);
+			SwingUtilities.invokeLater(() -> future.completeExceptionally(error));
+			return future;
+		}
+
+		if(deadline > 0L)
+		{
+			timeout = getTimer().schedule(() ->
+			{
+				if(!future.isDone())
+				{
+					eSportsAPIException error = new eSportsAPIException(new TimeoutException(String.format("Deadline exceeded (%d ms)", deadline)), "INTERNAL_NETWORK_ERROR");
+					SwingUtilities.invokeLater(() -> future.completeExceptionally(error));
+				}
+			}, deadline, TimeUnit.MILLISECONDS);
+		}
+
+		final Future<?> timer = timeout;
+		future.whenComplete((result, e) ->
+		{
+			// Ist der Job bereits fertig, bewirkt cancel() nichts.
+			job.cancel(true);
+
+			if(timer != null)
+			{
+				timer.cancel(false);
+			}
+		});
+
+		return future;
+	}
+
+	// Liefert den eigentlichen Fehler eines (asynchronen) Aufrufs, z.B. für
+	// HTGT.APIError(). Abgebrochene Aufrufe ergeben null.
+	public static eSportsAPIException getException(Throwable t)
+	{
+		while((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null)
+		{
+			t = t.getCause();
+		}
+
+		if(t == null || t instanceof CancellationException)
+		{
+			return null;
+		}
+		else if(t instanceof eSportsAPIException)
+		{
+			return (eSportsAPIException) t;
+		}
+		else if(t instanceof Exception)
+		{
+			return new eSportsAPIException((Exception) t);
+		}
+
+		return new eSportsAPIException(new RuntimeException(t));
+	}
+
+	private static synchronized ThreadPoolExecutor getExecutor()
+	{
+		if(executor == null)
+		{
+			executor = new ThreadPoolExecutor(ASYNC_THREADS, ASYNC_THREADS, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(ASYNC_QUEUE), getThreadFactory("eSportsAPI-%d"));
+			executor.allowCoreThreadTimeOut(true);
+		}
+
+		return executor;
+	}
+
+	private static synchronized ScheduledExecutorService getTimer()
+	{
+		if(timer == null)
+		{
+			ScheduledThreadPoolExecutor stpe = new ScheduledThreadPoolExecutor(1, getThreadFactory("eSportsAPI-Timer"));
+			stpe.setRemoveOnCancelPolicy(true);
+			timer = stpe;
+		}
+
+		return timer;
+	}
+
+	// Daemon-Threads, damit das Programm nicht auf offene Anfragen wartet.
+	private static ThreadFactory getThreadFactory(String name)
+	{
+		AtomicInteger count = new AtomicInteger();
+
+		return (runnable) ->
+		{
+			Thread thread = new Thread(runnable, String.format(name, count.incrementAndGet()));
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	private String request(String module, String method, Map<?,?> data) throws eSportsAPIException
+	{
+		module = module.toLowerCase();
+		method = method.toLowerCase();
+
+		String postdata = (data != null) ? FNX.buildQueryString(data) : "";
+
+		if(!COALESCE.contains(method))
+		{
+			return this.request(module, method, postdata, null);
+		}
+
+		// Die Ergebnisse hängen u.U. vom Spieler (Token) ab!
+		String key = String.format("%s/%s?%s#%s", module, method, postdata, (this.token != null) ? FNX.sha512(this.token) : "");
+		CompletableFuture<String> future = new CompletableFuture<String>();
+		CompletableFuture<String> running = inFlight.putIfAbsent(key, future);
+
+		if(running != null)
+		{
+			System.err.printf("HTTP WAIT: %s/%s (%d byte)%n", module, method, postdata.length());
+
+			eSportsAPIMetrics m = metrics;
+			if(m != null)
+			{
+				m.joined(module + "/" + method);
+			}
+
+			try
+			{
+				return running.get();
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new eSportsAPIException(e);
+			}
+			catch(ExecutionException e)
+			{
+				throw getException(e);
+			}
+		}
+
+		try
+		{
+			String result = this.request(module, method, postdata, key);
+			future.complete(result);
+
+			return result;
+		}
+		catch(eSportsAPIException|RuntimeException e)
+		{
+			future.completeExceptionally(e);
+			throw e;
+		}
+		finally
+		{
+			inFlight.remove(key, future);
+		}
+	}
+
+	private String request(String module, String method, String postdata, String key) throws eSportsAPIException
+	{
+		String url = String.format(API_REQUEST, getBaseURL(), API_VERSION, module, method);
+
+		String name = module + "/" + method;
+		eSportsAPIMetrics m = metrics;
+		eSportsAPICache c = cache;
+		Long ttl = CACHE_TTL.get(method);
+		eSportsAPIResponse cached = null;
+		Map<String,String> headers = new HashMap<String,String>();
+
+		if(c == null || ttl == null || key == null)
+		{
+			key = null;
+		}
+		else
+		{
+			cached = c.get(key);
+
+			if(cached != null && cached.getAge() < ttl)
+			{
+				System.err.printf("HTTP CACHE: %s (%d byte; %d ms old)%n", url, cached.getContent().length(), cached.getAge());
+
+				if(m != null)
+				{
+					m.cached(name);
+				}
+
+				return cached.getContent();
+			}
+			else if(cached != null)
+			{
+				if(cached.getHeader("ETag") != null)
+				{
+					headers.put("If-None-Match", cached.getHeader("ETag"));
+				}
+
+				if(cached.getHeader("Last-Modified") != null)
+				{
+					headers.put("If-Modified-Since", cached.getHeader("Last-Modified"));
+				}
+			}
+		}
+
+		eSportsAPIResponse response = this.fetch(url, module, method, postdata, headers);
+		String content = response.getContent();
+
+		if(response.getCode() == 304 && cached != null)
+		{
+			c.put(key, cached.renew());
+			return cached.getContent();
+		}
+		else if(response.getCode() == 200 && key != null)
+		{
+			c.put(key, response);
+		}
+
+		if(response.getCode() != 200)
+		{
+			throw getResponseException(response);
+		}
+
+		return content;
+	}
+
+	// Sendet die Anfrage, bei RETRY Methoden ggf. mehrmals. Nach dem
+	// letzten Versuch wird auch eine 5xx Antwort zurückgegeben.
+	private eSportsAPIResponse fetch(String url, String module, String method, String postdata, Map<String,String> headers) throws eSportsAPIException
+	{
+		String name = module + "/" + method;
+		int attempts = RETRY.contains(method) ? this.retryAttempts : 1;
+		eSportsAPI_CircuitBreaker cb = circuit;
+
+		// Der Token darf nie im Klartext übertragen werden.
+		if(module.equals("offline") && this.token != null && !isSecure(url))
+		{
+			System.err.printf("HTTP FAIL: %s (token requires https)%n", url);
+			throw new eSportsAPIException("INTERNAL_INSECURE_HOST");
+		}
+
+		if(!cb.allow())
+		{
+			System.err.printf("HTTP FAIL: %s (circuit open)%n", url);
+
+			eSportsAPIMetrics m = metrics;
+			if(m != null)
+			{
+				m.rejected(name);
+			}
+
+			throw new eSportsAPIException("INTERNAL_NETWORK_ERROR");
+		}
+
+		long begin = System.currentTimeMillis();
+		boolean failed = true;
+
+		// Der Circuit Breaker erfährt nur das Ergebnis des ganzen Aufrufs.
+		// Auch bei einer RuntimeException, sonst bliebe er evtl. offen.
+		try
+		{
+			for(int attempt = 1; ; attempt++)
+			{
+				System.err.printf("HTTP POST: %s (%d byte)%n", url, postdata.length());
+				// System.err.printf("POST DATA: %s%n", postdata);
+
+				eSportsAPIMetrics m = metrics;
+				long start = (m != null) ? m.begin(name) : 0L;
+				eSportsAPIResponse response = null;
+				eSportsAPIException error = null;
+				boolean retry = false;
+				failed = true;
+
+				try
+				{
+					response = this.send(url, module, postdata, headers);
+					System.err.printf("HTTP %d: %s (%s; %d byte, %d byte %s; %d/%d/%d ms)%n", response.getCode(), url, response.getMessage(), response.getContent().length(), response.getBytes(), response.getEncoding(), response.getSendTime() / 1000000L, response.getWaitTime() / 1000000L, response.getTotalTime() / 1000000L);
+
+					if(response.getCode() != 200 && response.getCode() != 304)
+					{
+						error = getResponseException(response);
+					}
+
+					// Fehlercodes der API (z.B. TOKEN_INVALID) wären auch
+					// beim nächsten Mal nicht anders, nur 5xx wiederholen.
+					failed = retry = (response.getCode() >= 500);
+				}
+				catch(UnknownHostException|ConnectException e)
+				{
+					error = new eSportsAPIException(e, "INTERNAL_NETWORK_ERROR");
+					retry = true;
+				}
+				catch(SocketTimeoutException e)
+				{
+					error = new eSportsAPIException(e, "INTERNAL_NETWORK_ERROR");
+				}
+				catch(IOException e)
+				{
+					error = new eSportsAPIException(e);
+				}
+				finally
+				{
+					if(m != null)
+					{
+						m.end(name, start, postdata.length(), (response != null) ? response.getBytes() : 0L, error);
+					}
+				}
+
+				long delay = ThreadLocalRandom.current().nextLong(Math.min(this.retryMaxDelay, this.retryDelay << Math.min(attempt - 1, 20)) + 1L);
+
+				if(retry && attempt < attempts && System.currentTimeMillis() - begin + delay < RETRY_BUDGET)
+				{
+					System.err.printf("HTTP RETRY: %s (attempt %d/%d in %d ms)%n", url, attempt + 1, attempts, delay);
+
+					if(m != null)
+					{
+						m.retried(name);
+					}
+
+					try
+					{
+						Thread.sleep(delay);
+						continue;
+					}
+					catch(InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+					}
+				}
+
+				if(response == null)
+				{
+					throw error;
+				}
+
+				return response;
+			}
+		}
+		finally
+		{
+			if(failed)
+			{
+				cb.failure();
+			}
+			else
+			{
+				cb.success();
+			}
+		}
+	}
+
+	// Fehlercode aus dem Inhalt einer Antwort ungleich 200.
+	private static eSportsAPIException getResponseException(eSportsAPIResponse response)
+	{
+		String body = response.getContent().trim();
+		if(body.matches("^[a-zA-Z0-9_]{1,32}$"))
+		{
+			return new eSportsAPIException(body.toUpperCase());
+		}
+		else
+		{
+			return new eSportsAPIException();
+		}
+	}
+
+	// Die Verbindung wird nie explizit getrennt. Solange die Antwort immer
+	// vollständig gelesen und der Stream geschlossen wird, hält Java sie
+	// offen (Keep-Alive) und nutzt sie für die nächste Anfrage an denselben
+	// Host erneut. Dadurch entfällt bei mehreren Anfragen hintereinander
+	// (z.B. Fast-Follow) jeweils der Verbindungsaufbau samt TLS-Handshake.
+	private eSportsAPIResponse send(String url, String module, String postdata, Map<String,String> headers) throws IOException
+	{
+		long start = System.nanoTime();
+		byte[] tx = postdata.getBytes(StandardCharsets.US_ASCII);
+
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setReadTimeout(API_TIMEOUT * 3);
+		connection.setConnectTimeout(API_TIMEOUT);
+		connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+
+		if(this.useragent != null)
+		{
+			connection.setRequestProperty("User-Agent", this.useragent);
+		}
+
+		if(module.equals("offline") && this.token != null)
+		{
+			connection.setRequestProperty("X-Auth-Token", this.token);
 		}
-		catch(IOException e)
+
+		if(this.osdata == null)
 		{
+			this.osdata = String.format("%s; %s; %s; %s; %s; %s", System.getProperty("os.name"), System.getProperty("os.arch"), System.getProperty("os.version"), System.getProperty("java.runtime.name"), System.getProperty("java.version"), Locale.getDefault());
+		}
+		connection.setRequestProperty("X-OS-Data", this.osdata);
+
+		for(Map.Entry<String,String> header : headers.entrySet())
+		{
+			connection.setRequestProperty(header.getKey(), header.getValue());
+		}
+
+		connection.setRequestMethod("POST"); connection.setDoOutput(true);
+		connection.setFixedLengthStreamingMode(tx.length);
+
+		try(OutputStream out = connection.getOutputStream())
+		{
+			out.write(tx);
+		}
+
+		long sent = System.nanoTime() - start;
+		int code = connection.getResponseCode();
+		String msg = connection.getResponseMessage();
+		long wait = System.nanoTime() - start;
+
+		byte[] rx;
+		InputStream in = (code < 400) ? connection.getInputStream() : connection.getErrorStream();
+
+		if(in == null)
+		{
+			rx = new byte[0];
+		}
+		else
+		{
+			try
+			{
+				rx = readFully(in, connection.getContentLength());
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+
+		String encoding = connection.getContentEncoding();
+		encoding = (encoding == null) ? "identity" : encoding.trim().toLowerCase();
+		byte[] content = decode(rx, encoding);
+
+		return new eSportsAPIResponse(code, msg, new String(content, getCharset(connection.getContentType())), encoding, rx.length, sent, wait, System.nanoTime() - start, connection.getHeaderFields());
+	}
+
+	// Liest den Stream blockweise bis zum Ende in ein byte[] ein.
+	// Die Länge (sofern bekannt) dient nur als erste Puffergröße.
+	private static byte[] readFully(InputStream in, int length) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream((length > 0) ? length : RX_BUFFER);
+		byte[] buffer = new byte[RX_BUFFER];
+		int n;
+
+		while((n = in.read(buffer)) != -1)
+		{
+			out.write(buffer, 0, n);
+		}
+
+		return out.toByteArray();
+	}
+
+	private static byte[] decode(byte[] data, String encoding) throws IOException
+	{
+		InputStream in;
+
+		switch(encoding)
+		{
+			case "gzip":
+			case "x-gzip":
+				in = new GZIPInputStream(new ByteArrayInputStream(data), RX_BUFFER);
+				break;
+
+			case "deflate":
+				// Eigentlich zlib (RFC 1950), manche Server senden aber die
+				// reinen Deflate-Daten (RFC 1951) ohne den zlib-Header.
+				boolean zlib = data.length > 1 && (data[0] & 0x0f) == 8 && ((data[0] & 0xff) << 8 | (data[1] & 0xff)) % 31 == 0;
+				in = new InflaterInputStream(new ByteArrayInputStream(data), new Inflater(!zlib), RX_BUFFER);
+				break;
+
+			default:
+				return data;
+		}
+
+		try
+		{
+			return readFully(in, data.length * 4);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	private static Charset getCharset(String contentType)
+	{
+		if(contentType != null)
+		{
+			for(String param : contentType.split(";"))
+			{
+				param = param.trim();
+
+				if(param.regionMatches(true, 0, "charset=", 0, 8))
+				{
+					try
+					{
+						return Charset.forName(param.substring(8).replace("\"", "").trim());
+					}
+					catch(IllegalArgumentException e)
+					{
+						break;
+					}
+				}
+			}
+		}
+
+		return StandardCharsets.UTF_8;
+	}
+
+	// Die Antworten werden mit StAX gelesen, ohne DOM und ohne die Knoten
+	// für jedes Feld per getElementsByTagName() erneut zu durchsuchen.
+	private static synchronized XMLStreamReader getXMLReader(String xml) throws XMLStreamException
+	{
+		if(xmlInputFactory == null)
+		{
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+			factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+			factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+			xmlInputFactory = factory;
+		}
+
+		return xmlInputFactory.createXMLStreamReader(new StringReader(xml));
+	}
+
+	// Liest das erste Element tag, siehe readElement(XMLStreamReader, ...).
+	private static Map<String,String> readElement(String xml, String tag, String... children) throws XMLStreamException
+	{
+		XMLStreamReader reader = getXMLReader(xml);
+
+		try
+		{
+			return readElement(reader, tag, children);
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	// Springt zum nächsten Element tag und liest es bis zu seinem Ende.
+	// Ergebnis: "" = Text (wie getTextContent), "@name" = Attribute und
+	// für das jeweils erste Vorkommen der children (in beliebiger Tiefe)
+	// "child" = Text sowie "child@name" = Attribute. null = Dokumentende.
+	private static Map<String,String> readElement(XMLStreamReader reader, String tag, String... children) throws XMLStreamException
+	{
+		do
+		{
+			if(!reader.hasNext())
+			{
+				return null;
+			}
+		}
+		while(reader.next() != XMLStreamConstants.START_ELEMENT || !reader.getLocalName().equals(tag));
+
+		Map<String,String> values = new HashMap<String,String>();
+		List<String> names = Arrays.asList(children);
+		StringBuilder text = new StringBuilder();
+		StringBuilder childText = null;
+		String child = null;
+		int childDepth = 0;
+		int depth = 1;
+
+		readAttributes(reader, "", values);
+
+		while(depth > 0 && reader.hasNext())
+		{
+			switch(reader.next())
+			{
+				case XMLStreamConstants.START_ELEMENT:
+					depth++;
+
+					if(child == null && names.contains(reader.getLocalName()) && !values.containsKey(reader.getLocalName()))
+					{
+						child = reader.getLocalName();
+						childText = new StringBuilder();
+						childDepth = depth;
+
+						readAttributes(reader, child, values);
+					}
+					break;
+
+				case XMLStreamConstants.END_ELEMENT:
+					if(child != null && depth == childDepth)
+					{
+						values.put(child, childText.toString());
+						child = null;
+					}
+
+					depth--;
+					break;
+
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+
+					if(child != null)
+					{
+						childText.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+					}
+					break;
+			}
+		}
+
+		values.put("", text.toString());
+		return values;
+	}
+
+	private static void readAttributes(XMLStreamReader reader, String prefix, Map<String,String> values)
+	{
+		for(int i = 0; i < reader.getAttributeCount(); i++)
+		{
+			values.put(prefix + "@" + getAttributeName(reader, i), reader.getAttributeValue(i));
+		}
+	}
+
+	// Wie Element.getAttribute(): "" falls nicht vorhanden.
+	private static String getAttribute(XMLStreamReader reader, String name)
+	{
+		for(int i = 0; i < reader.getAttributeCount(); i++)
+		{
+			if(getAttributeName(reader, i).equals(name))
+			{
+				return reader.getAttributeValue(i);
+			}
+		}
+
+		return "";
+	}
+
+	private static String getAttributeName(XMLStreamReader reader, int index)
+	{
+		String prefix = reader.getAttributePrefix(index);
+		String name = reader.getAttributeLocalName(index);
+
+		if(prefix != null && prefix.length() > 0)
+		{
+			name = String.format("%s:%s", prefix, name);
+		}
+
+		return name;
+	}
+
+	private static String getText(Map<String,String> values, String key) throws ParserConfigurationException
+	{
+		String value = values.get(key);
+
+		if(value == null)
+		{
+			throw new ParserConfigurationException(String.format("Missing <%s> in reply", key));
+		}
+
+		return value;
+	}
+
+	// HTTPS oder ein lokaler Server (z.B. eSportsAPIServer für Tests).
+	private static boolean isSecure(String url)
+	{
+		try
+		{
+			URL u = new URL(url);
+			String name = u.getHost().toLowerCase();
+
+			return u.getProtocol().equalsIgnoreCase("https") || name.equals("localhost") || name.equals("127.0.0.1") || name.equals("[::1]");
+		}
+		catch(MalformedURLException e)
+		{
+			return false;
+		}
+	}
+
+	// z.B. "htgt.app", "localhost:8080" oder "http://127.0.0.1:8080"
+	private static String getBaseURL()
+	{
+		if(host == null) { setHost(null); }
+
+		if(host.regionMatches(true, 0, "http://", 0, 7) || host.regionMatches(true, 0, "https://", 0, 8))
+		{
+			return host.replaceAll("/+$", "") + "/api";
+		}
+
+		return String.format(API_MAINURL, host);
+	}
+}
+
+// Sammelt die IDs gleichzeitiger getGhostByID() Aufrufe. Der erste Aufruf
+// (leader) schließt die Liste nach Ablauf des Zeitfensters bzw. sobald sie
+// voll ist, holt die Geister und verteilt sie an alle wartenden Aufrufe.
+class eSportsAPI_GhostBatch
+{
+	final private List<Integer> IDs = new ArrayList<Integer>();
+	final private List<Integer> Slots = new ArrayList<Integer>();
+	private int length = 0;
+	private boolean closed = false;
+	private boolean done = false;
+	private GhostElement[] Ghosts;
+	private boolean[] Used;
+	private eSportsAPIException Error;
+
+	// Gibt den Index des Aufrufs zurück, oder -1 falls die Liste bereits
+	// geschlossen ist bzw. mit dieser ID länger als max Bytes würde.
+	public synchronized int add(int id, int max)
+	{
+		if(this.closed)
+		{
+			return -1;
+		}
+
+		int slot = this.IDs.indexOf(id);
+
+		if(slot == -1)
+		{
+			int bytes = Integer.toString(id).length() + ((this.IDs.isEmpty()) ? 0 : 1);
+
+			if(this.length + bytes > max)
+			{
+				this.closed = true;
+				this.notifyAll();
+
+				return -1;
+			}
+
+			this.length += bytes;
+			slot = this.IDs.size();
+			this.IDs.add(id);
+		}
+
+		this.Slots.add(slot);
+		return this.Slots.size() - 1;
+	}
+
+	// Wartet (leader) bis zum Ende des Zeitfensters, außer die Liste ist
+	// schon vorher voll. Danach werden keine weiteren IDs mehr angenommen.
+	public synchronized int[] close(long window)
+	{
+		long end = System.currentTimeMillis() + window;
+		long wait;
+
+		try
+		{
+			while(!this.closed && (wait = end - System.currentTimeMillis()) > 0L)
+			{
+				this.wait(wait);
+			}
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		this.closed = true;
+		return this.IDs.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	// null: Die Antwort passt nicht, jeder Aufruf fragt einzeln an.
+	public synchronized void complete(GhostElement[] ghosts)
+	{
+		this.Ghosts = ghosts;
+		this.Used = new boolean[this.IDs.size()];
+		this.done = true;
+		this.notifyAll();
+	}
+
+	public synchronized void fail(eSportsAPIException e)
+	{
+		this.Error = e;
+		this.done = true;
+		this.notifyAll();
+	}
+
+	// Wurde dieselbe ID mehrfach angefragt, bekommt jeder Aufruf eine
+	// eigene Kopie, da GhostElement nicht unveränderlich ist.
+	public synchronized GhostElement get(int index) throws eSportsAPIException
+	{
+		try
+		{
+			while(!this.done)
+			{
+				this.wait();
+			}
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
 			throw new eSportsAPIException(e);
 		}
+
+		if(this.Error != null)
+		{
+			throw this.Error;
+		}
+		else if(this.Ghosts == null)
+		{
+			return null;
+		}
+
+		int slot = this.Slots.get(index);
+
+		if(!this.Used[slot])
+		{
+			this.Used[slot] = true;
+			return this.Ghosts[slot];
+		}
+
+		try
+		{
+			return new GhostElement(this.Ghosts[slot].toString());
+		}
+		catch(GhostException e)
+		{
+			throw new eSportsAPIException(e);
+		}
+	}
+}
+
+// Einfacher Circuit Breaker für alle Anfragen an den Server. Solange er
+// offen ist, lässt allow() nur alle open ms eine einzelne Anfrage durch.
+class eSportsAPI_CircuitBreaker
+{
+	final private int failures;
+	final private long open;
+
+	private int count;
+	private long opened;
+	private boolean probe;
+
+	eSportsAPI_CircuitBreaker(int failures, long open)
+	{
+		this.failures = Math.max(0, failures);
+		this.open = Math.max(0L, open);
+	}
+
+	synchronized boolean allow()
+	{
+		if(this.failures == 0 || this.count < this.failures)
+		{
+			return true;
+		}
+		else if(!this.probe && System.currentTimeMillis() - this.opened >= this.open)
+		{
+			this.probe = true;
+			return true;
+		}
+
+		return false;
+	}
+
+	synchronized void success()
+	{
+		this.count = 0;
+		this.probe = false;
+	}
+
+	synchronized void failure()
+	{
+		if(this.failures == 0)
+		{
+			return;
+		}
+
+		this.probe = false;
+
+		if(++this.count >= this.failures)
+		{
+			this.opened = System.currentTimeMillis();
+		}
 	}
 }
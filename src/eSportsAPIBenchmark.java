@@ -0,0 +1,195 @@
+/**
+ * eSportsAPIBenchmark.java: Load benchmark for the eSportsAPI client
+ * Copyright (C) 2018 Christian Schrötter <cs@fnx.li>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301  USA
+ */
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Misst Durchsatz und Latenz der einzelnen API-Methoden. Ohne -h wird
+// dafür ein eSportsAPIServer im selben Prozess gestartet, nur dann sind
+// auch die übertragenen Bytes (RX = Anfragen, TX = Antworten) bekannt.
+// Der Cache, das Zusammenfassen von getGhostByID(), Wiederholungen und
+// der Circuit Breaker sind deaktiviert, jeder Thread nutzt ein eigenes
+// Token (kein Zusammenfassen gleicher Anfragen). Die HTTP-Ausgaben von
+// eSportsAPI landen auf stderr.
+//
+// Aufruf: java eSportsAPIBenchmark [-h host] [-n requests] [-c threads] [-l latency] [-j jitter] [-e errors] [-z]
+public class eSportsAPIBenchmark
+{
+	final private static int DEFAULT_REQUESTS = 200;
+	final private static int DEFAULT_THREADS  = 4;
+	final private static int GHOSTS           = 10000;
+
+	private interface Call
+	{
+		void run(eSportsAPI api, int n) throws eSportsAPIException;
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		eSportsAPIServer server = new eSportsAPIServer(0);
+		String host = null;
+		int requests = DEFAULT_REQUESTS;
+		int threads = DEFAULT_THREADS;
+		int latency = 0;
+		int jitter = 0;
+
+		for(int i = 0; i < args.length; i++)
+		{
+			switch(args[i])
+			{
+				case "-h": host = args[++i]; break;
+				case "-n": requests = Integer.parseInt(args[++i]); break;
+				case "-c": threads = Integer.parseInt(args[++i]); break;
+				case "-l": latency = Integer.parseInt(args[++i]); break;
+				case "-j": jitter = Integer.parseInt(args[++i]); break;
+				case "-e": server.setErrorRate(Double.parseDouble(args[++i]) / 100.0); break;
+				case "-z": server.setCompression(false); break;
+
+				default:
+					System.err.println("Usage: java eSportsAPIBenchmark [-h host] [-n requests] [-c threads] [-l latency] [-j jitter] [-e errors] [-z]");
+					System.exit(1);
+			}
+		}
+
+		if(host == null)
+		{
+			server.setLatency(latency, jitter);
+			server.start();
+			host = server.getURL();
+		}
+		else
+		{
+			server = null;
+		}
+
+		eSportsAPI.setHost(host);
+		eSportsAPI.setCache(null);
+		eSportsAPI.setCircuitBreaker(0, 0L);
+
+		eSportsAPI setup = new eSportsAPI("benchmark");
+		GhostElement[] upload = setup.getGhostsByIDs(new int[]{1, 2, 3, 4, 5});
+
+		Map<String,Call> calls = new LinkedHashMap<String,Call>();
+		calls.put("ghost.get",    (api, n) -> api.getGhostByID(1 + n % GHOSTS));
+		calls.put("ghost.get*10", (api, n) -> api.getGhostsByIDs(new int[]{1 + n % GHOSTS, 2 + n % GHOSTS, 3, 4, 5, 6, 7, 8, 9, 10}));
+		calls.put("ghost.put",    (api, n) -> api.getGhostIDs(upload));
+		calls.put("result.get",   (api, n) -> api.getResultsByCondition(gmHelper.GAMEMODE_DEFAULT, gmHelper.getTracks(true)[n % 10], gmHelper.getWeatherIDs()[n % 3]));
+		calls.put("result.dump",  (api, n) -> api.getAllResults());
+		calls.put("result.apply", (api, n) -> api.applyResultByGhostID(1 + n % GHOSTS));
+		calls.put("track.list",   (api, n) -> api.getRaceWeather());
+		calls.put("player.info",  (api, n) -> api.getPlayerInfo());
+
+		System.out.printf("eSportsAPIBenchmark: %s (%d requests, %d threads)%n", host, requests, threads);
+		System.out.printf("%-14s %8s %6s %9s %9s %9s %9s %12s %12s%n", "METHOD", "REQUESTS", "ERRORS", "REQ/S", "P50 MS", "P99 MS", "MAX MS", "RX BYTES", "TX BYTES");
+
+		for(Map.Entry<String,Call> call : calls.entrySet())
+		{
+			String method = call.getKey().replaceAll("\\*.*$", "");
+			long[] before = (server != null) ? server.getStats().getOrDefault(method, new long[4]) : null;
+
+			long[] latencies = new long[requests];
+			AtomicInteger errors = new AtomicInteger();
+			long time = run(call.getValue(), requests, threads, latencies, errors);
+
+			Arrays.sort(latencies);
+			String rx = "-", tx = "-";
+
+			if(server != null)
+			{
+				long[] after = server.getStats().getOrDefault(method, new long[4]);
+				rx = Long.toString(after[eSportsAPIServer.STAT_RX] - before[eSportsAPIServer.STAT_RX]);
+				tx = Long.toString(after[eSportsAPIServer.STAT_TX] - before[eSportsAPIServer.STAT_TX]);
+			}
+
+			System.out.printf("%-14s %8d %6d %9.1f %9.2f %9.2f %9.2f %12s %12s%n", call.getKey(), requests, errors.get(), requests * 1e9 / time, percentile(latencies, 50) / 1e6, percentile(latencies, 99) / 1e6, latencies[requests - 1] / 1e6, rx, tx);
+		}
+
+		if(server != null)
+		{
+			server.stop();
+		}
+
+		// Die Threads von eSportsAPI (async) sind Daemons.
+		System.exit(0);
+	}
+
+	// Führt die Anfragen auf threads Threads aus (jeder mit eigenem Token)
+	// und gibt die Gesamtdauer in Nanosekunden zurück.
+	private static long run(Call call, int requests, int threads, long[] latencies, AtomicInteger errors) throws Exception
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		AtomicInteger next = new AtomicInteger();
+		Future<?>[] workers = new Future<?>[threads];
+		long start = System.nanoTime();
+
+		for(int t = 0; t < threads; t++)
+		{
+			eSportsAPI api = new eSportsAPI(String.format("benchmark-%d", t));
+			api.setGhostBatch(0L, 1);
+			api.setRetry(1, 0L, 0L);
+
+			workers[t] = executor.submit(() ->
+			{
+				int n;
+
+				while((n = next.getAndIncrement()) < requests)
+				{
+					long begin = System.nanoTime();
+
+					try
+					{
+						call.run(api, n);
+					}
+					catch(eSportsAPIException e)
+					{
+						errors.incrementAndGet();
+					}
+
+					latencies[n] = System.nanoTime() - begin;
+				}
+			});
+		}
+
+		for(Future<?> worker : workers)
+		{
+			worker.get();
+		}
+
+		long time = System.nanoTime() - start;
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+
+		return time;
+	}
+
+	// Nearest-rank, latencies muss sortiert sein.
+	private static long percentile(long[] latencies, int p)
+	{
+		int rank = (int) Math.ceil(p / 100.0 * latencies.length);
+
+		return latencies[Math.max(0, Math.min(latencies.length, rank) - 1)];
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * eSportsAPICache.java: Response cache for the HAPPYTEC-eSports-API
+ * Copyright (C) 2018 Christian Schrötter <cs@fnx.li>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301  USA
+ */
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+// Speichert erfolgreiche Antworten im Speicher (LRU). Wie lange eine
+// Antwort gültig ist und wann sie erneut geprüft wird (ETag usw.),
+// entscheidet eSportsAPI.request(). Für eine andere Ablage (z.B. auf der
+// Festplatte) kann die Klasse abgeleitet und mit eSportsAPI.setCache()
+// gesetzt werden. Alle Methoden müssen threadsicher sein!
+public class eSportsAPICache
+{
+	final private static int DEFAULT_ENTRIES = 64;
+
+	final private int entries;
+	final private LinkedHashMap<String,eSportsAPIResponse> Cache = new LinkedHashMap<String,eSportsAPIResponse>(16, 0.75f, true);
+
+	private long Hits   = 0L;
+	private long Misses = 0L;
+
+	public eSportsAPICache()
+	{
+		this(DEFAULT_ENTRIES);
+	}
+
+	public eSportsAPICache(int entries)
+	{
+		this.entries = Math.max(1, entries);
+	}
+
+	public synchronized eSportsAPIResponse get(String key)
+	{
+		eSportsAPIResponse response = this.Cache.get(key);
+
+		if(response != null)
+		{
+			this.Hits++;
+		}
+		else
+		{
+			this.Misses++;
+		}
+
+		return response;
+	}
+
+	public synchronized void put(String key, eSportsAPIResponse response)
+	{
+		this.Cache.put(key, response);
+
+		Iterator<String> it = this.Cache.keySet().iterator();
+
+		while(this.Cache.size() > this.entries && it.hasNext())
+		{
+			it.next();
+			it.remove();
+		}
+	}
+
+	// Entfernt alle Einträge, deren Schlüssel mit prefix beginnt.
+	public synchronized void invalidate(String prefix)
+	{
+		Iterator<String> it = this.Cache.keySet().iterator();
+
+		while(it.hasNext())
+		{
+			if(it.next().startsWith(prefix))
+			{
+				it.remove();
+			}
+		}
+	}
+
+	public synchronized void clear()
+	{
+		this.Cache.clear();
+	}
+
+	public synchronized String getInfo()
+	{
+		return String.format("API cache: %d/%d entries, %d hits, %d misses", this.Cache.size(), this.entries, this.Hits, this.Misses);
+	}
+}
@@ -0,0 +1,228 @@
+/**
+ * eSportsAPIMetrics.java: Request metrics for the HAPPYTEC-eSports-API
+ * Copyright (C) 2018 Christian Schrötter <cs@fnx.li>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301  USA
+ */
+
+import java.net.SocketTimeoutException;
+
+import java.util.Map;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Zählt pro Modul/Methode (z.B. "offline/result.get") die Anfragen, die
+// gesendeten und empfangenen Bytes, Timeouts und Fehlercodes sowie die
+// gerade laufenden Anfragen. Die Laufzeiten landen in fixen Buckets, die
+// Perzentile sind daher nur so genau wie die Obergrenze des Buckets.
+// Für Cache-Treffer, zusammengefasste, wiederholte und vom Circuit
+// Breaker abgelehnte Anfragen (siehe eSportsAPI) gibt es eigene Zähler.
+// Jeder Versuch einer Wiederholung zählt zusätzlich als eigene Anfrage.
+// Alle Methoden sind threadsicher.
+public class eSportsAPIMetrics
+{
+	// Obergrenzen der Buckets in Millisekunden, danach folgt noch ein
+	// Bucket für alles darüber (API_TIMEOUT * 3 ist der Read-Timeout).
+	final private static long[] BUCKETS = new long[]{ 1L, 2L, 5L, 10L, 20L, 50L, 100L, 200L, 500L, 1000L, 2000L, 5000L, 10000L, 20000L, 30000L, 60000L };
+
+	final private Map<String,eSportsAPIMetrics_Endpoint> Endpoints = new ConcurrentSkipListMap<String,eSportsAPIMetrics_Endpoint>();
+
+	private eSportsAPIMetrics_Endpoint getEndpoint(String name)
+	{
+		return this.Endpoints.computeIfAbsent(name, k -> new eSportsAPIMetrics_Endpoint(BUCKETS.length + 1));
+	}
+
+	// Vor dem Senden aufrufen, der Rückgabewert gehört zu end().
+	public long begin(String name)
+	{
+		eSportsAPIMetrics_Endpoint endpoint = this.getEndpoint(name);
+		int n = endpoint.inFlight.incrementAndGet();
+		endpoint.maxInFlight.accumulateAndGet(n, Math::max);
+
+		return System.nanoTime();
+	}
+
+	// e ist null, wenn die Anfrage erfolgreich war.
+	public void end(String name, long start, long tx, long rx, eSportsAPIException e)
+	{
+		long time = (System.nanoTime() - start) / 1000000L;
+		eSportsAPIMetrics_Endpoint endpoint = this.getEndpoint(name);
+		endpoint.inFlight.decrementAndGet();
+
+		endpoint.requests.incrementAndGet();
+		endpoint.tx.addAndGet(tx);
+		endpoint.rx.addAndGet(rx);
+		endpoint.time.addAndGet(time);
+		endpoint.maxTime.accumulateAndGet(time, Math::max);
+		endpoint.histogram.incrementAndGet(getBucket(time));
+
+		if(e != null)
+		{
+			if(e.getException() instanceof SocketTimeoutException)
+			{
+				endpoint.timeouts.incrementAndGet();
+			}
+
+			endpoint.errors.computeIfAbsent(e.getErrorCode(), k -> new AtomicLong()).incrementAndGet();
+		}
+	}
+
+	public void cached(String name)
+	{
+		this.getEndpoint(name).cached.incrementAndGet();
+	}
+
+	public void joined(String name)
+	{
+		this.getEndpoint(name).joined.incrementAndGet();
+	}
+
+	public void retried(String name)
+	{
+		this.getEndpoint(name).retried.incrementAndGet();
+	}
+
+	// Vom Circuit Breaker abgelehnt, ohne Anfrage an den Server.
+	public void rejected(String name)
+	{
+		this.getEndpoint(name).rejected.incrementAndGet();
+	}
+
+	public int getInFlight(String name)
+	{
+		eSportsAPIMetrics_Endpoint endpoint = this.Endpoints.get(name);
+		return (endpoint != null) ? endpoint.inFlight.get() : 0;
+	}
+
+	// Obergrenze (ms) des Buckets, in dem das Perzentil p (0-100) liegt.
+	// Für den letzten Bucket wird die längste gemessene Laufzeit geliefert.
+	public long getPercentile(String name, double p)
+	{
+		eSportsAPIMetrics_Endpoint endpoint = this.Endpoints.get(name);
+		return (endpoint != null) ? getPercentile(endpoint, p) : 0L;
+	}
+
+	public void reset()
+	{
+		this.Endpoints.clear();
+	}
+
+	public String getInfo()
+	{
+		StringBuilder info = new StringBuilder("API metrics:");
+
+		if(this.Endpoints.isEmpty())
+		{
+			return info.append(" no requests").toString();
+		}
+
+		for(Map.Entry<String,eSportsAPIMetrics_Endpoint> entry : this.Endpoints.entrySet())
+		{
+			eSportsAPIMetrics_Endpoint endpoint = entry.getValue();
+			long requests = endpoint.requests.get();
+
+			info.append(String.format("%n%s: %d requests (%d cached, %d joined, %d retried, %d rejected), %d in flight (max %d), %d byte sent, %d byte received", entry.getKey(), requests, endpoint.cached.get(), endpoint.joined.get(), endpoint.retried.get(), endpoint.rejected.get(), endpoint.inFlight.get(), endpoint.maxInFlight.get(), endpoint.tx.get(), endpoint.rx.get()));
+
+			if(requests == 0L)
+			{
+				continue;
+			}
+
+			info.append(String.format("%n  latency: avg %d ms, p50 %d ms, p90 %d ms, p99 %d ms, max %d ms", endpoint.time.get() / requests, getPercentile(endpoint, 50), getPercentile(endpoint, 90), getPercentile(endpoint, 99), endpoint.maxTime.get()));
+			info.append("\n  histogram:");
+
+			for(int i = 0; i < endpoint.histogram.length(); i++)
+			{
+				if(endpoint.histogram.get(i) > 0L)
+				{
+					info.append(String.format(" %s%d=%d", (i < BUCKETS.length) ? "<" : ">", BUCKETS[Math.min(i, BUCKETS.length - 1)], endpoint.histogram.get(i)));
+				}
+			}
+
+			if(!endpoint.errors.isEmpty())
+			{
+				info.append(String.format("%n  errors: %d timeouts", endpoint.timeouts.get()));
+				endpoint.errors.forEach((k, v) -> info.append(String.format(", %s=%d", k, v.get())));
+			}
+		}
+
+		return info.toString();
+	}
+
+	private static int getBucket(long time)
+	{
+		for(int i = 0; i < BUCKETS.length; i++)
+		{
+			if(time < BUCKETS[i])
+			{
+				return i;
+			}
+		}
+
+		return BUCKETS.length;
+	}
+
+	private static long getPercentile(eSportsAPIMetrics_Endpoint endpoint, double p)
+	{
+		long[] counts = new long[endpoint.histogram.length()];
+		long total = 0L;
+
+		for(int i = 0; i < counts.length; i++)
+		{
+			total += counts[i] = endpoint.histogram.get(i);
+		}
+
+		long rank = Math.max(1L, (long) Math.ceil(p / 100.0 * total));
+
+		for(int i = 0; i < BUCKETS.length; i++)
+		{
+			if((rank -= counts[i]) <= 0L)
+			{
+				return Math.min(BUCKETS[i], endpoint.maxTime.get());
+			}
+		}
+
+		return endpoint.maxTime.get();
+	}
+}
+
+class eSportsAPIMetrics_Endpoint
+{
+	final AtomicLong requests = new AtomicLong();
+	final AtomicLong cached   = new AtomicLong();
+	final AtomicLong joined   = new AtomicLong();
+	final AtomicLong retried  = new AtomicLong();
+	final AtomicLong rejected = new AtomicLong();
+	final AtomicLong tx       = new AtomicLong();
+	final AtomicLong rx       = new AtomicLong();
+	final AtomicLong time     = new AtomicLong();
+	final AtomicLong maxTime  = new AtomicLong();
+	final AtomicLong timeouts = new AtomicLong();
+
+	final AtomicInteger inFlight    = new AtomicInteger();
+	final AtomicInteger maxInFlight = new AtomicInteger();
+
+	final AtomicLongArray histogram;
+	final Map<String,AtomicLong> errors = new ConcurrentHashMap<String,AtomicLong>();
+
+	eSportsAPIMetrics_Endpoint(int buckets)
+	{
+		this.histogram = new AtomicLongArray(buckets);
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * eSportsAPIResponse.java: Single reply of the HAPPYTEC-eSports-API
+ * Copyright (C) 2018 Christian Schrötter <cs@fnx.li>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301  USA
+ */
+
+import java.util.List;
+import java.util.Map;
+
+// Enthält die Antwort (Status, Inhalt, Header) und die Messwerte einer
+// Anfrage. Die Zeiten sind in Nanosekunden seit Beginn der Anfrage:
+// Sent = Verbindung steht und Daten sind gesendet, Wait = erste Antwort
+// (Status) ist da, Done = Inhalt ist vollständig gelesen.
+public class eSportsAPIResponse
+{
+	private int                       Code;
+	private String                    Message;
+	private String                    Content;
+	private String                    Encoding;
+	private long                      Bytes;
+	private long                      Sent;
+	private long                      Wait;
+	private long                      Done;
+	private Map<String,List<String>>  Headers;
+	private long                      Time;
+
+	public eSportsAPIResponse(int code, String message, String content, String encoding, long bytes, long sent, long wait, long done, Map<String,List<String>> headers)
+	{
+		this.Code     = code;
+		this.Message  = message;
+		this.Content  = content;
+		this.Encoding = encoding;
+		this.Bytes    = bytes;
+		this.Sent     = sent;
+		this.Wait     = wait;
+		this.Done     = done;
+		this.Headers  = headers;
+		this.Time     = System.currentTimeMillis();
+	}
+
+	// Kopie mit neuem Zeitstempel (z.B. nach "304 Not Modified").
+	public eSportsAPIResponse renew()
+	{
+		return new eSportsAPIResponse(this.Code, this.Message, this.Content, this.Encoding, this.Bytes, this.Sent, this.Wait, this.Done, this.Headers);
+	}
+
+	public int getCode()
+	{
+		return this.Code;
+	}
+
+	public String getMessage()
+	{
+		return this.Message;
+	}
+
+	public String getContent()
+	{
+		return this.Content;
+	}
+
+	// "gzip", "deflate" oder "identity"
+	public String getEncoding()
+	{
+		return this.Encoding;
+	}
+
+	// Anzahl der übertragenen (ggf. komprimierten) Bytes.
+	public long getBytes()
+	{
+		return this.Bytes;
+	}
+
+	public long getSendTime()
+	{
+		return this.Sent;
+	}
+
+	public long getWaitTime()
+	{
+		return this.Wait;
+	}
+
+	public long getTotalTime()
+	{
+		return this.Done;
+	}
+
+	// Alter der Antwort in Millisekunden.
+	public long getAge()
+	{
+		return System.currentTimeMillis() - this.Time;
+	}
+
+	// Groß-/Kleinschreibung wird (wie bei HTTP) ignoriert.
+	public String getHeader(String name)
+	{
+		for(Map.Entry<String,List<String>> header : this.Headers.entrySet())
+		{
+			if(header.getKey() != null && header.getKey().equalsIgnoreCase(name) && !header.getValue().isEmpty())
+			{
+				return header.getValue().get(0);
+			}
+		}
+
+		return null;
+	}
+}
@@ -0,0 +1,528 @@
+/**
+ * eSportsAPIServer.java: Local stand-in for the HAPPYTEC-eSports-API
+ * Copyright (C) 2018 Christian Schrötter <cs@fnx.li>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301  USA
+ */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import java.util.zip.GZIPOutputStream;
+
+// Ein lokaler Ersatz für die API (htgt.app) mit erfundenen Daten, z.B. für
+// eSportsAPIBenchmark oder zum Testen ohne Internet. HTGT kann ihn über
+// eSportsAPI.setHost("http://127.0.0.1:8080") bzw. die Einstellung "api"
+// nutzen. Unterstützt werden ghost.get/put, result.get/dump/apply,
+// track.list, player.info und update.check. Die Antworten entsprechen nur
+// in ihrer Struktur dem Original, der Inhalt ist beliebig.
+//
+// Aufruf: java eSportsAPIServer [-p port] [-l latency] [-j jitter] [-e errors] [-z]
+// latency/jitter in ms, errors in Prozent (Antwort "SERVER_DUMB"), -z = ohne gzip.
+public class eSportsAPIServer
+{
+	final private static String API_PATH     = "/api/1.0/";
+	final private static int    DEFAULT_PORT = 8080;
+	final private static int    GHOSTS       = 10000;
+	final private static int    RESULTS      = 50;
+
+	// Index in den Statistiken je Methode.
+	final public static int STAT_REQUESTS = 0;
+	final public static int STAT_ERRORS   = 1;
+	final public static int STAT_RX       = 2;
+	final public static int STAT_TX       = 3;
+
+	final private static Pattern GhostPattern = Pattern.compile("<GhostDataPair[^>]*>", Pattern.CASE_INSENSITIVE);
+
+	private HttpServer Server;
+	private ExecutorService Executor;
+	private int port;
+	private int latency = 0;
+	private int jitter = 0;
+	private double errors = 0.0;
+	private boolean compression = true;
+
+	// Hochgeladene Geister. IDs bis GHOSTS werden bei Bedarf erzeugt.
+	final private Map<Integer,String> Uploads = new ConcurrentHashMap<Integer,String>();
+	final private AtomicInteger NextGhostID = new AtomicInteger(GHOSTS + 1);
+	final private Map<String,long[]> Stats = new TreeMap<String,long[]>();
+
+	public eSportsAPIServer(int port)
+	{
+		this.port = port;
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		eSportsAPIServer server = new eSportsAPIServer(DEFAULT_PORT);
+
+		for(int i = 0; i < args.length; i++)
+		{
+			switch(args[i])
+			{
+				case "-p": server.port = Integer.parseInt(args[++i]); break;
+				case "-l": server.setLatency(Integer.parseInt(args[++i]), server.jitter); break;
+				case "-j": server.setLatency(server.latency, Integer.parseInt(args[++i])); break;
+				case "-e": server.setErrorRate(Double.parseDouble(args[++i]) / 100.0); break;
+				case "-z": server.setCompression(false); break;
+
+				default:
+					System.err.println("Usage: java eSportsAPIServer [-p port] [-l latency] [-j jitter] [-e errors] [-z]");
+					System.exit(1);
+			}
+		}
+
+		server.start();
+		System.out.printf("eSportsAPIServer: %s (latency: %d+%d ms, errors: %.1f%%, gzip: %s)%n", server.getURL(), server.latency, server.jitter, server.errors * 100.0, server.compression);
+
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.print(server.getInfo())));
+	}
+
+	public void setLatency(int latency, int jitter)
+	{
+		this.latency = Math.max(0, latency);
+		this.jitter = Math.max(0, jitter);
+	}
+
+	// 0.0 bis 1.0
+	public void setErrorRate(double errors)
+	{
+		this.errors = Math.max(0.0, Math.min(1.0, errors));
+	}
+
+	public void setCompression(boolean compression)
+	{
+		this.compression = compression;
+	}
+
+	public void start() throws IOException
+	{
+		// Sonst bremst Nagle (Header und Inhalt werden einzeln gesendet)
+		// zusammen mit verzögerten ACKs jede Antwort um bis zu 40 ms aus.
+		if(System.getProperty("sun.net.httpserver.nodelay") == null)
+		{
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+
+		this.Server = HttpServer.create(new InetSocketAddress("127.0.0.1", this.port), 0);
+		this.Server.createContext(API_PATH, this::handle);
+
+		// Die künstliche Latenz blockiert jeweils einen Thread.
+		this.Executor = Executors.newCachedThreadPool();
+		this.Server.setExecutor(this.Executor);
+		this.Server.start();
+
+		this.port = this.Server.getAddress().getPort();
+	}
+
+	public void stop()
+	{
+		if(this.Server != null)
+		{
+			this.Server.stop(0);
+			this.Executor.shutdownNow();
+			this.Server = null;
+		}
+	}
+
+	// Für eSportsAPI.setHost()
+	public String getURL()
+	{
+		return String.format("http://127.0.0.1:%d", this.port);
+	}
+
+	// Kopie der Statistiken je Methode (siehe STAT_*).
+	public Map<String,long[]> getStats()
+	{
+		Map<String,long[]> stats = new TreeMap<String,long[]>();
+
+		synchronized(this.Stats)
+		{
+			for(Map.Entry<String,long[]> stat : this.Stats.entrySet())
+			{
+				stats.put(stat.getKey(), stat.getValue().clone());
+			}
+		}
+
+		return stats;
+	}
+
+	public String getInfo()
+	{
+		StringBuilder info = new StringBuilder(String.format("%-14s %9s %7s %12s %12s%n", "METHOD", "REQUESTS", "ERRORS", "RX BYTES", "TX BYTES"));
+
+		for(Map.Entry<String,long[]> stat : this.getStats().entrySet())
+		{
+			long[] s = stat.getValue();
+			info.append(String.format("%-14s %9d %7d %12d %12d%n", stat.getKey(), s[STAT_REQUESTS], s[STAT_ERRORS], s[STAT_RX], s[STAT_TX]));
+		}
+
+		return info.toString();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException
+	{
+		String path = exchange.getRequestURI().getPath();
+		String method = path.substring(path.lastIndexOf('/') + 1).toLowerCase();
+		boolean offline = path.toLowerCase().startsWith(API_PATH + "offline/");
+
+		byte[] rx;
+		int code = 200;
+		String reply;
+
+		try(InputStream in = exchange.getRequestBody())
+		{
+			rx = readFully(in);
+		}
+
+		try
+		{
+			this.delay();
+
+			if(this.errors > 0.0 && ThreadLocalRandom.current().nextDouble() < this.errors)
+			{
+				throw new eSportsAPIException("SERVER_DUMB");
+			}
+			else if(!offline)
+			{
+				throw new eSportsAPIException("UNKNOWN_MODULE");
+			}
+			else if(exchange.getRequestHeaders().getFirst("X-Auth-Token") == null && !method.equals("update.check"))
+			{
+				throw new eSportsAPIException("TOKEN_UNKNOWN");
+			}
+
+			reply = this.reply(method, parseQuery(new String(rx, StandardCharsets.US_ASCII)));
+		}
+		catch(eSportsAPIException e)
+		{
+			code = e.getErrorCode().equals("SERVER_DUMB") ? 500 : 400;
+			reply = e.getErrorCode();
+		}
+		catch(RuntimeException e)
+		{
+			code = 400;
+			reply = "INVALID_REQUEST";
+		}
+
+		byte[] tx = reply.getBytes(StandardCharsets.UTF_8);
+		String encoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+
+		if(this.compression && encoding != null && encoding.toLowerCase().contains("gzip"))
+		{
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream(tx.length / 4 + 64);
+
+			try(GZIPOutputStream gzip = new GZIPOutputStream(buffer))
+			{
+				gzip.write(tx);
+			}
+
+			tx = buffer.toByteArray();
+			exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+		}
+
+		exchange.getResponseHeaders().set("Content-Type", (code == 200) ? "text/xml; charset=UTF-8" : "text/plain; charset=UTF-8");
+		exchange.sendResponseHeaders(code, tx.length);
+
+		try(OutputStream out = exchange.getResponseBody())
+		{
+			out.write(tx);
+		}
+
+		synchronized(this.Stats)
+		{
+			long[] stat = this.Stats.computeIfAbsent(method, k -> new long[4]);
+			stat[STAT_REQUESTS]++;
+			stat[STAT_ERRORS] += (code != 200) ? 1 : 0;
+			stat[STAT_RX] += rx.length;
+			stat[STAT_TX] += tx.length;
+		}
+	}
+
+	private String reply(String method, Map<String,String> args) throws eSportsAPIException
+	{
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n<eSportsAPI>");
+
+		switch(method)
+		{
+			case "ghost.get":
+				String ids = (args.containsKey("byIDs")) ? args.get("byIDs") : args.get("byID");
+				int count = 0;
+
+				for(String id : ids.split("[^0-9]+"))
+				{
+					if(id.length() > 0 && this.getGhost(Integer.parseInt(id)) != null)
+					{
+						xml.append(this.getGhost(Integer.parseInt(id)));
+						count++;
+					}
+				}
+
+				if(count == 0)
+				{
+					throw new eSportsAPIException("GHOST_UNKNOWN");
+				}
+				break;
+
+			case "ghost.put":
+				Matcher ghosts = GhostPattern.matcher(args.get("XML"));
+
+				while(ghosts.find())
+				{
+					int id = this.NextGhostID.getAndIncrement();
+					this.Uploads.put(id, ghosts.group());
+					xml.append(String.format("<Ghost ID=\"%d\" />", id));
+				}
+				break;
+
+			case "result.apply":
+				int ghostID = Integer.parseInt(args.get("ghostID"));
+
+				if(this.getGhost(ghostID) == null)
+				{
+					throw new eSportsAPIException("GHOST_UNKNOWN");
+				}
+
+				xml.append(String.format("<Ghost ID=\"%d\" />", ghostID));
+				break;
+
+			case "result.get":
+				Random random = new Random(args.hashCode());
+				int next = random.nextInt(RESULTS);
+
+				for(int i = 0; i < RESULTS; i++)
+				{
+					String type = (i == next) ? " Type=\"Next\"" : (i == next + 1) ? " Type=\"Prev\"" : "";
+					xml.append(String.format("<OfflineResult%s><Nickname>Player%d</Nickname><Result>%d</Result><Position>%d</Position><Ghost ID=\"%d\" /></OfflineResult>", type, random.nextInt(GHOSTS), 30000 + i * 250 + random.nextInt(250), i + 1, 1 + random.nextInt(GHOSTS)));
+				}
+				break;
+
+			case "result.dump":
+				this.appendConditions(xml, false);
+				break;
+
+			case "track.list":
+				this.appendConditions(xml, true);
+				break;
+
+			case "player.info":
+				xml.append("<OfflinePlayer ID=\"1\"><Nickname>Player1</Nickname><Username>player1</Username><Competition><Key>local</Key><Title>eSportsAPIServer</Title></Competition></OfflinePlayer>");
+				break;
+
+			case "update.check":
+				xml.append("<Result>NO_UPDATES</Result>");
+				break;
+
+			default:
+				throw new eSportsAPIException("UNKNOWN_METHOD");
+		}
+
+		return xml.append("</eSportsAPI>").toString();
+	}
+
+	// result.dump: Eine Zeit je Bedingung, track.list: Ein Rennen je
+	// Spielmodus und Strecke (Wetter wechselt täglich).
+	private void appendConditions(StringBuilder xml, boolean tracks) throws eSportsAPIException
+	{
+		Random random = new Random(System.currentTimeMillis() / 86400000L);
+
+		try
+		{
+			for(int mode : gmHelper.getGameModeIDs())
+			{
+				for(String track : gmHelper.getTracksByGameMode(mode))
+				{
+					int[] weathers = gmHelper.getWeatherIDs();
+
+					if(tracks)
+					{
+						weathers = new int[]{weathers[random.nextInt(weathers.length)]};
+					}
+
+					for(int weather : weathers)
+					{
+						String m = gmHelper.getGameMode(mode, true);
+						String w = gmHelper.getWeather(weather, true);
+
+						if(gmHelper.parseCondition(m, track.toLowerCase(), w) == gmHelper.CONDITION_NONE)
+						{
+							continue;
+						}
+						else if(tracks)
+						{
+							xml.append(String.format("<Track GameMode=\"%s\" Track=\"%s\" Weather=\"%s\" Race=\"true\" Ticket=\"false\" />", m, track.toUpperCase(), w));
+						}
+						else
+						{
+							xml.append(String.format("<OfflineResult GameMode=\"%s\" Track=\"%s\" Weather=\"%s\" Ticket=\"false\"><Result>%d</Result></OfflineResult>", m, track.toUpperCase(), w, 30000 + random.nextInt(60000)));
+						}
+					}
+				}
+			}
+		}
+		catch(gmException e)
+		{
+			throw new eSportsAPIException(e);
+		}
+	}
+
+	private String getGhost(int id)
+	{
+		if(id > 0 && id <= GHOSTS)
+		{
+			return createGhost(id);
+		}
+
+		return this.Uploads.get(id);
+	}
+
+	// Erzeugt einen (immer gleichen) Geist, der GhostElement/GhostData
+	// genügt. Die Aufzeichnung besteht aus Zufallsdaten.
+	private static String createGhost(int id)
+	{
+		Random random = new Random(id);
+		ByteArrayOutputStream data = new ByteArrayOutputStream(8192);
+
+		int[] modes = gmHelper.getGameModeIDs();
+		int mode = modes[random.nextInt(modes.length - 1)];
+		String[] tracks = gmHelper.getTracksByGameMode(mode);
+		int[] weathers = gmHelper.getWeatherIDs();
+
+		data.write(0x18); data.write(random.nextInt(100));
+		data.write(0x22); data.write(6);
+		data.write(0x08); data.write(random.nextInt(40));
+		data.write(0x10); data.write(random.nextInt(40));
+		data.write(0x18); data.write(random.nextInt(20));
+
+		// Keine zufälligen Markierungen (0x28) in der Aufzeichnung!
+		byte[] replay = new byte[1024 + random.nextInt(6144)];
+		random.nextBytes(replay);
+
+		for(int i = 0; i < replay.length; i++)
+		{
+			replay[i] = (replay[i] == 0x28) ? 0x00 : replay[i];
+		}
+
+		data.write(0x22); data.write((replay.length & 0x7f) | 0x80); data.write(replay.length >> 7);
+		data.write(replay, 0, replay.length);
+		data.write(0x28); data.write(random.nextInt(128));
+		data.write(0x30); data.write(random.nextInt(128));
+
+		if(random.nextInt(4) == 0)
+		{
+			data.write(0x08); data.write(0x96); data.write(0x01);
+			data.write(0x2A); data.write(0x01); data.write(0x00);
+		}
+
+		byte[] nickname = String.format("Player%d", id).getBytes(StandardCharsets.ISO_8859_1);
+		byte[] edition = "SkiChallenge16".getBytes(StandardCharsets.ISO_8859_1);
+
+		data.write(0x32); data.write(nickname.length + edition.length + 6);
+		data.write(0x0A); data.write(nickname.length); data.write(nickname, 0, nickname.length);
+		data.write(0x12); data.write(edition.length); data.write(edition, 0, edition.length);
+		data.write(0x18); data.write(0x00);
+		data.write(0x40); data.write(0x01);
+
+		try
+		{
+			return String.format("<GhostDataPair Time=\"%d\" Weather=\"%s\" GameMode=\"%s\" Track=\"%s\" Data=\"%s\" />", 30000 + random.nextInt(90000), gmHelper.getWeather(weathers[random.nextInt(weathers.length)]), gmHelper.getGameMode(mode), tracks[random.nextInt(tracks.length)], Base64.getEncoder().encodeToString(data.toByteArray()));
+		}
+		catch(gmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void delay()
+	{
+		int ms = this.latency + ((this.jitter > 0) ? ThreadLocalRandom.current().nextInt(this.jitter + 1) : 0);
+
+		if(ms > 0)
+		{
+			try
+			{
+				Thread.sleep(ms);
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static Map<String,String> parseQuery(String query)
+	{
+		Map<String,String> args = new HashMap<String,String>();
+
+		try
+		{
+			for(String pair : query.split("&"))
+			{
+				int pos = pair.indexOf('=');
+
+				if(pos > 0)
+				{
+					args.put(URLDecoder.decode(pair.substring(0, pos), "UTF-8"), URLDecoder.decode(pair.substring(pos + 1), "UTF-8"));
+				}
+			}
+		}
+		catch(UnsupportedEncodingException e)
+		{
+			throw new IllegalStateException(e);
+		}
+
+		return args;
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+
+		while((n = in.read(buffer)) != -1)
+		{
+			out.write(buffer, 0, n);
+		}
+
+		return out.toByteArray();
+	}
+}
@@ -17,10 +17,8 @@
  * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301  USA
  */
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ResourceBundle;
-import java.util.Date;
+import java.util.HashMap;
 
 public abstract class gmHelper
 {
@@ -52,6 +50,10 @@ public abstract class gmHelper
 	public final static int GAMEMODE_MM_EXTREMEICE    = 5; // ACHTUNG: Nur bei Eis verfügbar!
 	public final static int GAMEMODE_MM_LASTDOWNSWING = 6;
 
+	// Höchste gültige Zeit (11:00,000) und maximale Länge von getResult().
+	public final static int RESULT_MAX    = 660000;
+	public final static int RESULT_LENGTH = 13; // "-35791:23,648"
+
 	// ----------------------------------- //
 	// GentleMagic Spielmodus IDs:         //
 	//   1=default; 4=rowdy; 5=extremeice  //
@@ -59,10 +61,60 @@ public abstract class gmHelper
 	//   ???=lastdownswing                 //
 	// ----------------------------------- //
 
-	private static DateFormat ResultFormat;
 	private static ResourceBundle lang;
 	private static String[] TrackKeys;
 
+	// Übersetzte Namen der aktuellen Sprache (siehe setupLocale).
+	private static volatile gmHelper_Names Names;
+
+	// Eine Bedingung (Spielmodus, Strecke und Wetter) wird als fortlaufende
+	// Zahl (0 bis getConditionCount() - 1) dargestellt. Die Zuordnung in
+	// beide Richtungen erfolgt über vorberechnete Tabellen.
+	public final static int CONDITION_NONE = -1;
+
+	private final static String[] CONDITION_TRACKS   = getTracks(true);
+	private final static int      CONDITION_MODES    = GAMEMODE_MM_LASTDOWNSWING + 1;
+	private final static int      CONDITION_WEATHERS = WEATHER_RACE - WEATHER_SUN + 1;
+
+	private final static HashMap<String,Integer> GameModeIndex = new HashMap<String,Integer>();
+	private final static HashMap<String,Integer> TrackIndex    = new HashMap<String,Integer>();
+	private final static HashMap<String,Integer> WeatherIndex  = new HashMap<String,Integer>();
+	private final static String[]                ConditionStrings;
+
+	static
+	{
+		try
+		{
+			for(int m = 0; m < CONDITION_MODES; m++)
+			{
+				GameModeIndex.put(getGameMode(m), m);
+			}
+
+			for(int w = WEATHER_SUN; w <= WEATHER_RACE; w++)
+			{
+				WeatherIndex.put(getWeather(w), w);
+			}
+
+			WeatherIndex.put(getWeather(WEATHER_TICKET), WEATHER_TICKET);
+
+			for(int t = 0; t < CONDITION_TRACKS.length; t++)
+			{
+				TrackIndex.put(CONDITION_TRACKS[t], t);
+			}
+
+			ConditionStrings = new String[getConditionCount()];
+
+			for(int c = 0; c < ConditionStrings.length; c++)
+			{
+				ConditionStrings[c] = String.format("%s.%s.%s", getGameMode(getConditionGameMode(c)), getWeather(getConditionWeather(c)), getConditionTrack(c)).toUpperCase();
+			}
+		}
+		catch(gmException e)
+		{
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
 	public static boolean isReverseGameMode(int gameModeType)
 	{
 		return (gameModeType == GAMEMODE_MM_TIMEATTACK);
@@ -123,11 +175,11 @@ public abstract class gmHelper
 
 	public static String getGameModeName(int gameModeType) throws gmException
 	{
-		String gameModeName = getGameMode(gameModeType);
+		String gameModeName = getNames().getGameMode(gameModeType);
 
-		if(getLangBundle().containsKey(gameModeName))
+		if(gameModeName != null)
 		{
-			return FNX.getLangString(getLangBundle(), gameModeName);
+			return gameModeName;
 		}
 
 		throw new gmException(String.format("Invalid game mode type: %d", gameModeType));
@@ -221,11 +273,11 @@ public abstract class gmHelper
 
 	public static String getWeatherName(int weatherType) throws gmException
 	{
-		String weatherName = String.format("weather_%s", getWeather(weatherType));
+		String weatherName = getNames().getWeather(weatherType);
 
-		if(getLangBundle().containsKey(weatherName))
+		if(weatherName != null)
 		{
-			return FNX.getLangString(getLangBundle(), weatherName);
+			return weatherName;
 		}
 
 		throw new gmException(String.format("Invalid weather type: %d", weatherType));
@@ -265,26 +317,173 @@ public abstract class gmHelper
 	// Es muss also nur eine Richtung implementiert werden.
 	public static String getTrack(String trackKey) throws gmException
 	{
-		String trackName = String.format("track_%s", trackKey.toLowerCase());
+		String trackName = getNames().getTrack(trackKey.toLowerCase());
 
-		if(getLangBundle().containsKey(trackName))
+		if(trackName != null)
 		{
-			return FNX.getLangString(getLangBundle(), trackName);
+			return trackName;
 		}
 
 		throw new gmException(String.format("Invalid track key: %s", trackKey));
 	}
 
+	// Wie getTrack(), aber über den Index der Strecke in getTracks().
+	public static String getTrackName(int trackIndex) throws gmException
+	{
+		String trackName = getNames().getTrack(trackIndex);
+
+		if(trackName != null)
+		{
+			return trackName;
+		}
+
+		throw new gmException(String.format("Invalid track index: %d", trackIndex));
+	}
+
+	// Gibt den Index der Strecke in getTracks() zurück.
+	public static int getTrackIndex(String trackKey)
+	{
+		Integer index = TrackIndex.get(trackKey.toLowerCase());
+		return (index != null) ? index : -1;
+	}
+
+	// Im Gegensatz zu parseGameMode() wird hier keine Exception geworfen.
+	public static int findGameMode(String gameModeString)
+	{
+		Integer gameModeType = GameModeIndex.get(gameModeString.toLowerCase());
+		return (gameModeType != null) ? gameModeType : -1;
+	}
+
+	// Im Gegensatz zu parseWeather() wird auch "xtc" erkannt.
+	public static int findWeather(String weatherString)
+	{
+		Integer weatherType = WeatherIndex.get(weatherString.toLowerCase());
+		return (weatherType != null) ? weatherType : WEATHER_NONE;
+	}
+
+	public static int getConditionCount()
+	{
+		return CONDITION_MODES * CONDITION_TRACKS.length * CONDITION_WEATHERS;
+	}
+
+	public static int getCondition(int gameModeType, int trackIndex, int weatherType)
+	{
+		if(gameModeType < 0 || gameModeType >= CONDITION_MODES || trackIndex < 0 || trackIndex >= CONDITION_TRACKS.length || weatherType < WEATHER_SUN || weatherType > WEATHER_RACE)
+		{
+			return CONDITION_NONE;
+		}
+
+		return ((gameModeType * CONDITION_TRACKS.length) + trackIndex) * CONDITION_WEATHERS + (weatherType - WEATHER_SUN);
+	}
+
+	public static int getCondition(int gameModeType, String trackKey, int weatherType)
+	{
+		return getCondition(gameModeType, getTrackIndex(trackKey), weatherType);
+	}
+
+	// Für die Attribute (GameMode, Track und Weather) vom Server.
+	public static int parseCondition(String gameModeString, String trackKey, String weatherString)
+	{
+		return getCondition(findGameMode(gameModeString), getTrackIndex(trackKey), findWeather(weatherString));
+	}
+
+	public static int getConditionGameMode(int condition)
+	{
+		return condition / (CONDITION_TRACKS.length * CONDITION_WEATHERS);
+	}
+
+	public static int getConditionTrackIndex(int condition)
+	{
+		return (condition / CONDITION_WEATHERS) % CONDITION_TRACKS.length;
+	}
+
+	public static String getConditionTrack(int condition)
+	{
+		return CONDITION_TRACKS[getConditionTrackIndex(condition)];
+	}
+
+	public static int getConditionWeather(int condition)
+	{
+		return WEATHER_SUN + (condition % CONDITION_WEATHERS);
+	}
+
+	// Der Index entspricht der Position in getWeatherIDs().
+	public static int getConditionWeatherIndex(int condition)
+	{
+		return condition % CONDITION_WEATHERS;
+	}
+
+	// Format: GAMEMODE.WEATHER.TRACK
+	public static String getConditionString(int condition)
+	{
+		return ConditionStrings[condition];
+	}
+
 	public static String getResult(int ms)
 	{
-		if(ResultFormat == null)
+		char[] buffer = new char[RESULT_LENGTH];
+
+		return new String(buffer, 0, formatResult(buffer, 0, ms));
+	}
+
+	// Schreibt die Zeit als "mm:ss,SSS" in den Puffer (ab offset, maximal
+	// RESULT_LENGTH Zeichen) und gibt die Anzahl der Zeichen zurück. Es wird
+	// nichts angelegt und es gibt keinen gemeinsamen Zustand, daher kann die
+	// Methode von beliebigen Threads gleichzeitig genutzt werden.
+	//
+	// Früher wurde ein (nicht threadsicheres) SimpleDateFormat verwendet,
+	// das die Zeitzone einrechnete (z.B. +05:30) und ab 60 Minuten wieder bei
+	// 00 begann. Jetzt werden die Minuten nie abgeschnitten. Gültige Zeiten
+	// enden bei RESULT_MAX (11:00,000). Für Time Attack (isReverseGameMode)
+	// gilt dasselbe Format, dort ist nur eine höhere Zeit besser.
+	public static int formatResult(char[] buffer, int offset, int ms)
+	{
+		int pos = offset;
+		long value = ms;
+
+		if(value < 0)
+		{
+			buffer[pos++] = '-';
+			value = -value;
+		}
+
+		int minutes = (int) (value / 60000L);
+		int seconds = (int) (value / 1000L % 60L);
+		int millis  = (int) (value % 1000L);
+
+		if(minutes >= 100)
+		{
+			int digits = 0;
+
+			for(int i = minutes; i > 0; i /= 10)
+			{
+				digits++;
+			}
+
+			for(int i = digits - 1, m = minutes; i >= 0; i--, m /= 10)
+			{
+				buffer[pos + i] = (char) ('0' + m % 10);
+			}
+
+			pos += digits;
+		}
+		else
 		{
-			// Das HAPPYTEC-Format nutzt einen Beistrich.
-			// Andere Implementierungen nutzen einen Punkt.
-			ResultFormat = new SimpleDateFormat("mm:ss,SSS");
+			buffer[pos++] = (char) ('0' + minutes / 10);
+			buffer[pos++] = (char) ('0' + minutes % 10);
 		}
 
-		return ResultFormat.format(new Date(ms));
+		// Das HAPPYTEC-Format nutzt einen Beistrich.
+		// Andere Implementierungen nutzen einen Punkt.
+		buffer[pos++] = ':';
+		buffer[pos++] = (char) ('0' + seconds / 10);
+		buffer[pos++] = (char) ('0' + seconds % 10);
+		buffer[pos++] = ',';
+		buffer[pos++] = (char) ('0' + millis / 100);
+		buffer[pos++] = (char) ('0' + millis / 10 % 10);
+		buffer[pos++] = (char) ('0' + millis % 10);
+
+		return pos - offset;
 	}
 
 	public static String formatSki(int[] ski)
@@ -448,6 +647,28 @@ public abstract class gmHelper
 		return lang;
 	}
 
+	private static gmHelper_Names getNames()
+	{
+		gmHelper_Names names = Names;
+
+		if(names == null)
+		{
+			names = new gmHelper_Names(getLangBundle(), CONDITION_MODES, CONDITION_TRACKS);
+			Names = names;
+		}
+
+		return names;
+	}
+
+	// Lädt die Übersetzungen für die (neue) Standardsprache und erstellt
+	// die Tabellen für getGameModeName(), getWeatherName() und getTrack().
+	// Muss nach jedem Wechsel der Sprache aufgerufen werden!
+	public static void setupLocale()
+	{
+		lang = FNX.getLangBundle("gmHelper");
+		Names = new gmHelper_Names(lang, CONDITION_MODES, CONDITION_TRACKS);
+	}
+
 	public static void setTrackOrder(String[] tracks) throws Exception
 	{
 		TrackKeys = new String[tracks.length];
@@ -461,3 +682,83 @@ public abstract class gmHelper
 		}
 	}
 }
+
+// Unveränderliche Tabellen mit den Namen einer Sprache. Sie werden einmalig
+// aus dem ResourceBundle erstellt, danach ist jeder Zugriff nur noch ein
+// Array- bzw. HashMap-Zugriff (ohne String.format oder containsKey).
+class gmHelper_Names
+{
+	final private static int WEATHER_OFFSET = -gmHelper.WEATHER_TICKET;
+
+	final private String[]               GameModes;
+	final private String[]               Weathers;
+	final private String[]               Tracks;
+	final private HashMap<String,String> TrackKeys = new HashMap<String,String>();
+
+	public gmHelper_Names(ResourceBundle lang, int modes, String[] tracks)
+	{
+		this.GameModes = new String[modes];
+		this.Weathers = new String[gmHelper.WEATHER_RACE + WEATHER_OFFSET + 1];
+		this.Tracks = new String[tracks.length];
+
+		try
+		{
+			for(int m = 0; m < modes; m++)
+			{
+				this.GameModes[m] = getString(lang, gmHelper.getGameMode(m));
+			}
+
+			for(int w = gmHelper.WEATHER_SUN; w <= gmHelper.WEATHER_RACE; w++)
+			{
+				this.Weathers[w + WEATHER_OFFSET] = getString(lang, "weather_" + gmHelper.getWeather(w));
+			}
+
+			this.Weathers[gmHelper.WEATHER_TICKET + WEATHER_OFFSET] = getString(lang, "weather_" + gmHelper.getWeather(gmHelper.WEATHER_TICKET));
+		}
+		catch(gmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+
+		for(String key : lang.keySet())
+		{
+			if(key.startsWith("track_"))
+			{
+				this.TrackKeys.put(key.substring(6), FNX.getLangString(lang, key));
+			}
+		}
+
+		for(int t = 0; t < tracks.length; t++)
+		{
+			this.Tracks[t] = this.TrackKeys.get(tracks[t]);
+		}
+	}
+
+	private static String getString(ResourceBundle lang, String key)
+	{
+		return lang.containsKey(key) ? FNX.getLangString(lang, key) : null;
+	}
+
+	public String getGameMode(int gameModeType)
+	{
+		return (gameModeType >= 0 && gameModeType < this.GameModes.length) ? this.GameModes[gameModeType] : null;
+	}
+
+	public String getWeather(int weatherType)
+	{
+		int index = weatherType + WEATHER_OFFSET;
+
+		return (index >= 0 && index < this.Weathers.length) ? this.Weathers[index] : null;
+	}
+
+	public String getTrack(int trackIndex)
+	{
+		return (trackIndex >= 0 && trackIndex < this.Tracks.length) ? this.Tracks[trackIndex] : null;
+	}
+
+	// Der Schlüssel muss bereits klein geschrieben sein.
+	public String getTrack(String trackKey)
+	{
+		return this.TrackKeys.get(trackKey);
+	}
+}